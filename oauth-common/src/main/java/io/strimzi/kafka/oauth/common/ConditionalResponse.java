@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+/**
+ * The result of a conditional GET request performed with {@link HttpUtil#getIfModified}.
+ *
+ * If the resource was not modified, there is no body, and the caller should keep using the previously fetched copy.
+ *
+ * @param <T> Response body type
+ */
+public class ConditionalResponse<T> {
+
+    private final T body;
+    private final boolean notModified;
+    private final String etag;
+    private final String lastModified;
+    private final long maxAgeSeconds;
+
+    public ConditionalResponse(T body, boolean notModified, String etag, String lastModified, long maxAgeSeconds) {
+        this.body = body;
+        this.notModified = notModified;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * @return The parsed response body, or null if not modified
+     */
+    public T body() {
+        return body;
+    }
+
+    /**
+     * @return true if the server responded with '304 Not Modified'
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @return The value of 'ETag' response header to be used with the next request, or null
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * @return The value of 'Last-Modified' response header to be used with the next request, or null
+     */
+    public String lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The number of seconds the response remains fresh according to 'Cache-Control' response header,
+     * or -1 if not specified
+     */
+    public long maxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+}
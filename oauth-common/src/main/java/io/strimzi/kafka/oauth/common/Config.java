@@ -116,6 +116,18 @@ public class Config {
         return result != null ? Integer.parseInt(result) : fallback;
     }
 
+    /**
+     * Get value for property key as double or fallback value if not found
+     *
+     * @param key Config key
+     * @param fallback Fallback value
+     * @return Config value
+     */
+    public double getValueAsDouble(String key, double fallback) {
+        String result = getValue(key);
+        return result != null ? Double.parseDouble(result) : fallback;
+    }
+
     /**
      * Get value for property key as boolean or fallback value if not found
      *
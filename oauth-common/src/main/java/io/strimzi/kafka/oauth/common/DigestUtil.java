@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+public class DigestUtil {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not supported by the platform", e);
+        }
+    });
+
+    /**
+     * Compute SHA-256 digest of the token, and return it as base64url encoded string.
+     *
+     * The result is suitable as a cache key that does not keep the raw token in memory.
+     *
+     * @param token Raw token
+     * @return Base64url encoded SHA-256 digest without padding
+     */
+    public static String sha256(String token) {
+        MessageDigest md = SHA256.get();
+        byte[] digest = md.digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+}
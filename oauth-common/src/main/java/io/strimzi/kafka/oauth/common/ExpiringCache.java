@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A bounded concurrent cache where every entry carries its own expiry time.
+ *
+ * Expired entries are removed lazily on lookup, and in bulk when the cache is full.
+ * If the cache is still full after that, an arbitrary tenth of the entries is evicted, so that the cost of
+ * making room is amortised over many insertions.
+ *
+ * A cache created with <code>maxSize</code> of 0 or less is disabled - it never stores anything.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ExpiringCache<K, V> {
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ExpiringCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public V get(K key) {
+        return get(key, null);
+    }
+
+    /**
+     * Lookup the value for the key.
+     *
+     * @param key The key
+     * @param stillValid An optional additional check - if it returns false the entry is removed and the lookup counts as a miss
+     * @return The cached value or null if not present, expired, or no longer valid
+     */
+    public V get(K key, Predicate<V> stillValid) {
+        Entry<V> e = map.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (e.expiresAt <= System.currentTimeMillis() || stillValid != null && !stillValid.test(e.value)) {
+            map.remove(key, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.value;
+    }
+
+    public void put(K key, V value, long expiresAtMs) {
+        if (maxSize <= 0) {
+            return;
+        }
+        if (map.size() >= maxSize && !map.containsKey(key)) {
+            makeRoom();
+        }
+        map.put(key, new Entry<>(value, expiresAtMs));
+    }
+
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    public void removeIf(BiPredicate<K, V> predicate) {
+        map.entrySet().removeIf(e -> predicate.test(e.getKey(), e.getValue().value));
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    private void makeRoom() {
+        long now = System.currentTimeMillis();
+        map.values().removeIf(e -> e.expiresAt <= now);
+
+        int excess = map.size() - maxSize + Math.max(1, maxSize / 10);
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (excess > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+            excess--;
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The share of lookups that found a value, between 0 and 1, or 0 if there were no lookups yet
+     */
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpiringCache {size: " + map.size() + ", maxSize: " + maxSize + ", hits: " + hits.get() + ", misses: " + misses.get()
+                + ", hitRate: " + String.format(Locale.ROOT, "%.3f", hitRate()) + "}";
+    }
+
+    static class Entry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 
 import static io.strimzi.kafka.oauth.common.IOUtil.copy;
 
@@ -74,29 +75,99 @@ public class HttpUtil {
         request(uri, socketFactory, verifier, authorization, contentType, body, null);
     }
 
-    // Surpressed because of Spotbugs Java 11 bug - https://github.com/spotbugs/spotbugs/issues/756
-    @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE")
-    public static <T> T request(URI uri, SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier, String authorization, String contentType, String body, Class<T> responseType) throws IOException {
-        HttpURLConnection con;
+    /**
+     * Perform a conditional GET request. If <code>etag</code> or <code>lastModified</code> from the previous response
+     * are passed, the server may respond with '304 Not Modified', in which case the response is not parsed.
+     *
+     * @param uri The target url
+     * @param socketFactory Socket factory to use with https:// url
+     * @param hostnameVerifier HostnameVerifier to use with https:// url
+     * @param authorization The Authorization header value
+     * @param etag The 'ETag' of the previous response, sent as 'If-None-Match' header (can be null)
+     * @param lastModified The 'Last-Modified' of the previous response, sent as 'If-Modified-Since' header (can be null)
+     * @param responseType The type to which to convert the response
+     * @param <T> Generic type of the <code>responseType</code>
+     * @return The response with the parsed body, or with no body if not modified
+     * @throws IOException A connection, timeout, or network exception that occurs while performing the request
+     */
+    public static <T> ConditionalResponse<T> getIfModified(URI uri, SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier, String authorization,
+                                                           String etag, String lastModified, Class<T> responseType) throws IOException {
+        HttpURLConnection con = openConnection(uri, socketFactory, hostnameVerifier);
+        con.setRequestMethod("GET");
+        if (authorization != null) {
+            con.setRequestProperty("Authorization", authorization);
+        }
+        con.setRequestProperty("Accept", "application/json");
+        if (etag != null) {
+            con.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            con.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
         try {
-            con = (HttpURLConnection) uri.toURL().openConnection();
-        } catch (MalformedURLException e) {
-            throw new IllegalArgumentException("Malformed token endpoint url: " + uri);
+            con.connect();
+        } catch (ConnectException e) {
+            throw new IOException("Failed to connect to: " + uri, e);
         }
 
-        if (con instanceof HttpsURLConnection) {
-            HttpsURLConnection scon = (HttpsURLConnection) con;
-            if (socketFactory != null) {
-                scon.setSSLSocketFactory(socketFactory);
+        long maxAge = parseMaxAge(con.getHeaderField("Cache-Control"), con.getHeaderField("Age"));
+        if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            try (InputStream response = con.getInputStream()) {
+                IOUtil.copy(response, new ByteArrayOutputStream());
             }
-            if (hostnameVerifier != null) {
-                scon.setHostnameVerifier(hostnameVerifier);
+            String newEtag = con.getHeaderField("ETag");
+            String newLastModified = con.getHeaderField("Last-Modified");
+            return new ConditionalResponse<>(null, true,
+                    newEtag != null ? newEtag : etag,
+                    newLastModified != null ? newLastModified : lastModified,
+                    maxAge);
+        }
+
+        T result = handleResponse(con, "GET", uri, responseType);
+        return new ConditionalResponse<>(result, false, con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"), maxAge);
+    }
+
+    /**
+     * Get the number of seconds the response remains fresh, taking into account the time it may have spent in proxy caches.
+     *
+     * 'no-cache', 'no-store', and max-age that is 0 or has already been used up, don't say how long the response may be reused,
+     * so they are treated the same as when max-age is not specified.
+     *
+     * @return The remaining max-age in seconds, or -1 if there is none
+     */
+    static long parseMaxAge(String cacheControl, String age) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        long maxAge = -1;
+        for (String directive: cacheControl.split(",")) {
+            String d = directive.trim().toLowerCase(Locale.ROOT);
+            if (d.equals("no-cache") || d.equals("no-store")) {
+                return -1;
+            }
+            if (d.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(d.substring("max-age=".length()).replace("\"", "").trim());
+                } catch (NumberFormatException e) {
+                    log.debug("Ignoring invalid Cache-Control max-age: " + cacheControl);
+                }
+            }
+        }
+        if (maxAge > 0 && age != null) {
+            try {
+                maxAge = Math.max(0, maxAge - Long.parseLong(age.trim()));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid Age: " + age);
             }
-        } else if (socketFactory != null) {
-            log.warn("SSL socket factory set but url scheme not https ({})", uri);
         }
+        return maxAge > 0 ? maxAge : -1;
+    }
 
-        con.setUseCaches(false);
+    // Surpressed because of Spotbugs Java 11 bug - https://github.com/spotbugs/spotbugs/issues/756
+    @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE")
+    public static <T> T request(URI uri, SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier, String authorization, String contentType, String body, Class<T> responseType) throws IOException {
+        HttpURLConnection con = openConnection(uri, socketFactory, hostnameVerifier);
         if (body != null) {
             con.setDoOutput(true);
         }
@@ -129,6 +200,30 @@ public class HttpUtil {
         return handleResponse(con, method, uri, responseType);
     }
 
+    private static HttpURLConnection openConnection(URI uri, SSLSocketFactory socketFactory, HostnameVerifier hostnameVerifier) throws IOException {
+        HttpURLConnection con;
+        try {
+            con = (HttpURLConnection) uri.toURL().openConnection();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Malformed token endpoint url: " + uri);
+        }
+
+        if (con instanceof HttpsURLConnection) {
+            HttpsURLConnection scon = (HttpsURLConnection) con;
+            if (socketFactory != null) {
+                scon.setSSLSocketFactory(socketFactory);
+            }
+            if (hostnameVerifier != null) {
+                scon.setHostnameVerifier(hostnameVerifier);
+            }
+        } else if (socketFactory != null) {
+            log.warn("SSL socket factory set but url scheme not https ({})", uri);
+        }
+
+        con.setUseCaches(false);
+        return con;
+    }
+
     // Surpressed because of Spotbugs Java 11 bug - https://github.com/spotbugs/spotbugs/issues/756
     @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE")
     private static <T> T handleResponse(HttpURLConnection con, String method, URI uri, Class<T> responseType) throws IOException {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+public class PemUtil {
+
+    private static final String BEGIN = "-----BEGIN ";
+    private static final String END = "-----END ";
+
+    /**
+     * Read the RSA or EC public key from the PEM encoded 'PUBLIC KEY', or from the PEM encoded X.509 'CERTIFICATE'.
+     *
+     * @param pem The PEM encoded public key or certificate
+     * @return The public key
+     * @throws IllegalArgumentException if the public key can't be read
+     */
+    public static PublicKey readPublicKey(String pem) {
+        int begin = pem.indexOf(BEGIN);
+        int typeEnd = begin == -1 ? -1 : pem.indexOf("-----", begin + BEGIN.length());
+        int end = typeEnd == -1 ? -1 : pem.indexOf(END, typeEnd);
+        if (end == -1) {
+            throw new IllegalArgumentException("Not a PEM encoded public key or certificate");
+        }
+        String type = pem.substring(begin + BEGIN.length(), typeEnd);
+        byte[] der;
+        try {
+            der = Base64.getMimeDecoder().decode(pem.substring(typeEnd + 5, end));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid base64 encoding of PEM " + type, e);
+        }
+
+        try {
+            if ("CERTIFICATE".equals(type)) {
+                return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(der)).getPublicKey();
+            }
+            if ("PUBLIC KEY".equals(type)) {
+                return generatePublic(der);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Failed to read PEM " + type, e);
+        }
+        throw new IllegalArgumentException("Unsupported PEM type: " + type + " (should be 'PUBLIC KEY' or 'CERTIFICATE')");
+    }
+
+    private static PublicKey generatePublic(byte[] der) throws GeneralSecurityException {
+        X509EncodedKeySpec spec = new X509EncodedKeySpec(der);
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(spec);
+        } catch (GeneralSecurityException e) {
+            // Not an RSA key
+            return KeyFactory.getInstance("EC").generatePublic(spec);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.keycloak.jose.jws.JWSInput;
 import org.keycloak.representations.AccessToken;
 
+import java.util.function.Function;
+
 import static io.strimzi.kafka.oauth.common.JSONUtil.getClaimFromJWT;
 
 public class PrincipalExtractor {
@@ -36,16 +38,26 @@ public class PrincipalExtractor {
     }
 
     public String getPrincipal(JsonNode json) {
+        return getPrincipal(claim -> getClaimFromJWT(json, claim));
+    }
+
+    /**
+     * Extract the principal using a claim lookup function
+     *
+     * @param claims A function that returns the value of the claim with the specified name, or null if not present
+     * @return Principal or null if not available
+     */
+    public String getPrincipal(Function<String, String> claims) {
         String result;
 
         if (usernameClaim != null) {
-            result = getClaimFromJWT(json, usernameClaim);
+            result = claims.apply(usernameClaim);
             if (result != null) {
                 return result;
             }
 
             if (fallbackUsernameClaim != null) {
-                result = getClaimFromJWT(json, fallbackUsernameClaim);
+                result = claims.apply(fallbackUsernameClaim);
                 if (result != null) {
                     return fallbackUsernamePrefix == null ? result : fallbackUsernamePrefix + result;
                 }
@@ -68,6 +80,14 @@ public class PrincipalExtractor {
         return "PrincipalExtractor {usernameClaim: " + usernameClaim  + ", fallbackUsernameClaim: " + fallbackUsernameClaim + ", fallbackUsernamePrefix: " + fallbackUsernamePrefix + "}";
     }
 
+    public String getUsernameClaim() {
+        return usernameClaim;
+    }
+
+    public String getFallbackUsernameClaim() {
+        return fallbackUsernameClaim;
+    }
+
     public boolean isConfigured() {
         return usernameClaim != null || fallbackUsernameClaim != null || fallbackUsernamePrefix != null;
     }
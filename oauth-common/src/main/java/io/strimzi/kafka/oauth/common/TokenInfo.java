@@ -13,7 +13,8 @@ import java.util.Set;
 public class TokenInfo {
 
     private String token;
-    private Set<String> scopes = new HashSet<>();
+    private String scope;
+    private volatile Set<String> scopes;
     private long expiresAt;
     private String principal;
     private long issuedAt;
@@ -33,20 +34,31 @@ public class TokenInfo {
         this.principal = principal;
         this.issuedAt = issuedAtMs;
         this.expiresAt = expiresAtMs;
-
-        String[] parsedScopes = scope != null ? scope.split(" ") : new String[0];
-        for (String s: parsedScopes) {
-            scopes.add(s);
-        }
-        scopes = Collections.unmodifiableSet(scopes);
+        this.scope = scope;
     }
 
     public String token() {
         return token;
     }
 
+    /**
+     * The scopes are only parsed when first requested, as most sessions never need them.
+     *
+     * @return The scopes granted to the token
+     */
     public Set<String> scope() {
-        return scopes;
+        Set<String> result = scopes;
+        if (result == null) {
+            result = new HashSet<>();
+            if (scope != null) {
+                for (String s: scope.split(" ")) {
+                    result.add(s);
+                }
+            }
+            result = Collections.unmodifiableSet(result);
+            scopes = result;
+        }
+        return result;
     }
 
     public long expiresAtMs() {
@@ -64,4 +76,14 @@ public class TokenInfo {
     public AccessToken payload() {
         return payload;
     }
+
+    /**
+     * Get the value of one of the claims retained by the validator for the lifetime of the session.
+     *
+     * @param name The claim name
+     * @return The claim value as String, or null if not present or not retained
+     */
+    public String claim(String name) {
+        return null;
+    }
 }
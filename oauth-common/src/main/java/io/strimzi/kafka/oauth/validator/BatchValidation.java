@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import io.strimzi.kafka.oauth.common.TokenInfo;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The implementation of {@link TokenValidator#validateAll(Collection)}.
+ *
+ * It uses its own fork-join pool, separate from the common pool, so that it is sized to all the available processors,
+ * and the batch validation doesn't compete with other users of the common pool. The pool is only created when first used.
+ */
+class BatchValidation {
+
+    private static class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    static Map<String, CompletableFuture<TokenInfo>> validateAll(TokenValidator validator, Collection<String> tokens) {
+        Map<String, CompletableFuture<TokenInfo>> results = new LinkedHashMap<>();
+        for (String token: tokens) {
+            results.putIfAbsent(token, new CompletableFuture<>());
+        }
+
+        if (results.size() == 1) {
+            results.forEach((token, result) -> validate(validator, token, result));
+        } else if (results.size() > 1) {
+            // Parallel stream started from within the pool runs its tasks in the same pool
+            PoolHolder.POOL.submit(() -> results.entrySet().parallelStream()
+                    .forEach(e -> validate(validator, e.getKey(), e.getValue()))).join();
+        }
+        return results;
+    }
+
+    private static void validate(TokenValidator validator, String token, CompletableFuture<TokenInfo> result) {
+        try {
+            result.complete(validator.validate(token));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import java.util.List;
+
+/**
+ * The result of decoding the JWT token with {@link JWTDecoder}.
+ *
+ * It only contains the header fields, and the claims that are needed for validation and principal extraction.
+ * The signing input and the signature are only available on the decoding thread, until the next token is decoded.
+ */
+public class DecodedToken {
+
+    String algorithm;
+    String kid;
+
+    Long exp;
+    Long iat;
+    Long nbf;
+    String iss;
+    String typ;
+    String sub;
+    String jti;
+    String scope;
+    List<String> aud;
+
+    final String[] claimNames;
+    final String[] claimValues;
+
+    byte[] signingInput;
+    int signingInputLength;
+    byte[] signature;
+    int signatureLength;
+
+    DecodedToken(String[] claimNames) {
+        this.claimNames = claimNames;
+        this.claimValues = new String[claimNames.length];
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public String kid() {
+        return kid;
+    }
+
+    /**
+     * @return The value of 'exp' claim in seconds, or null if not present
+     */
+    public Long exp() {
+        return exp;
+    }
+
+    /**
+     * @return The value of 'iat' claim in seconds, or null if not present
+     */
+    public Long iat() {
+        return iat;
+    }
+
+    /**
+     * @return The value of 'nbf' claim in seconds, or null if not present
+     */
+    public Long nbf() {
+        return nbf;
+    }
+
+    public String issuer() {
+        return iss;
+    }
+
+    public String type() {
+        return typ;
+    }
+
+    public String subject() {
+        return sub;
+    }
+
+    public String jti() {
+        return jti;
+    }
+
+    public String scope() {
+        return scope;
+    }
+
+    public boolean hasAudience(String audience) {
+        return aud != null && aud.contains(audience);
+    }
+
+    /**
+     * Get the value of one of the additional claims the decoder was configured to extract.
+     *
+     * The value follows the semantics of <code>JsonNode.asText()</code> - structured values are returned as an empty string.
+     *
+     * @param name The claim name
+     * @return The claim value as String, or null if not present
+     */
+    public String claim(String name) {
+        for (int i = 0; i < claimNames.length; i++) {
+            if (claimNames[i].equals(name)) {
+                return claimValues[i];
+            }
+        }
+        return null;
+    }
+}
@@ -4,15 +4,11 @@
  */
 package io.strimzi.kafka.oauth.validator;
 
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DERSequenceGenerator;
 import org.keycloak.common.VerificationException;
 import org.keycloak.crypto.AsymmetricSignatureVerifierContext;
 import org.keycloak.crypto.KeyWrapper;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * This class provides ECDSA signature verification support.
@@ -53,27 +49,72 @@ public class ECDSASignatureVerifierContext extends AsymmetricSignatureVerifierCo
     }
 
     static byte[] concatenatedRSToASN1DER(final byte[] signature, int signLength) {
+        byte[] der = new byte[maxDERLength(signLength)];
+        int len = concatenatedRSToASN1DER(signature, signLength, der);
+        return Arrays.copyOf(der, len);
+    }
+
+    /**
+     * @param signLength The length of the concatenated R and S values
+     * @return The maximum length of the same signature encoded as ASN.1 DER
+     */
+    static int maxDERLength(int signLength) {
+        // SEQUENCE header with long form length, and two INTEGERs with a possible leading zero byte
+        return 3 + 2 * (2 + signLength / 2 + 1);
+    }
+
+    /**
+     * Encode the concatenated R and S values as ASN.1 DER <code>SEQUENCE { INTEGER r, INTEGER s }</code>,
+     * without any intermediate objects.
+     *
+     * @param signature The buffer starting with R and S values
+     * @param signLength The length of the concatenated R and S values
+     * @param der The output buffer of at least {@link #maxDERLength(int)} bytes
+     * @return The length of the DER encoded signature written to <code>der</code>
+     */
+    static int concatenatedRSToASN1DER(final byte[] signature, int signLength, byte[] der) {
+        if (signature.length < signLength || signLength % 2 != 0) {
+            throw new IllegalArgumentException("Invalid ECDSA signature length: " + signature.length);
+        }
         int len = signLength / 2;
-        int arraySize = len + 1;
-
-        byte[] r = new byte[arraySize];
-        byte[] s = new byte[arraySize];
-        System.arraycopy(signature, 0, r, 1, len);
-        System.arraycopy(signature, len, s, 1, len);
-        BigInteger rBigInteger = new BigInteger(r);
-        BigInteger sBigInteger = new BigInteger(s);
-
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            DERSequenceGenerator seqGen = new DERSequenceGenerator(bos);
-
-            seqGen.addObject(new ASN1Integer(rBigInteger.toByteArray()));
-            seqGen.addObject(new ASN1Integer(sBigInteger.toByteArray()));
-            seqGen.close();
-            bos.close();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to generate ASN.1 DER signature", e);
+        int rOff = skipLeadingZeros(signature, 0, len);
+        int sOff = skipLeadingZeros(signature, len, len);
+        int rLen = len - rOff;
+        int sLen = 2 * len - sOff;
+        boolean rPad = signature[rOff] < 0;
+        boolean sPad = signature[sOff] < 0;
+
+        int contentLen = 2 + rLen + (rPad ? 1 : 0) + 2 + sLen + (sPad ? 1 : 0);
+
+        int o = 0;
+        der[o++] = 0x30;
+        if (contentLen > 127) {
+            der[o++] = (byte) 0x81;
+        }
+        der[o++] = (byte) contentLen;
+        o = writeInteger(signature, rOff, rLen, rPad, der, o);
+        o = writeInteger(signature, sOff, sLen, sPad, der, o);
+        return o;
+    }
+
+    /**
+     * Find the start of the minimal encoding of the unsigned value, keeping at least one byte
+     */
+    private static int skipLeadingZeros(byte[] buf, int off, int len) {
+        int end = off + len - 1;
+        while (off < end && buf[off] == 0) {
+            off++;
+        }
+        return off;
+    }
+
+    private static int writeInteger(byte[] src, int off, int len, boolean pad, byte[] der, int o) {
+        der[o++] = 0x02;
+        der[o++] = (byte) (len + (pad ? 1 : 0));
+        if (pad) {
+            der[o++] = 0;
         }
-        return bos.toByteArray();
+        System.arraycopy(src, off, der, o, len);
+        return o + len;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import io.strimzi.kafka.oauth.common.PrincipalExtractor;
+import io.strimzi.kafka.oauth.common.TokenInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A validator for JWT tokens signed with a shared secret using one of HS256, HS384, or HS512 algorithms.
+ *
+ * The signature is checked locally, without any network calls. Every thread uses its own <code>Mac</code> instances,
+ * which are initialised with the secret only once.
+ *
+ * As required by RFC 7518, the tokens signed with an algorithm whose hash output is longer than the secret are rejected.
+ */
+public class HMACSignatureValidator implements TokenValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(HMACSignatureValidator.class);
+
+    private final JWTClaimsValidator claimsValidator;
+    private final JWTDecoder decoder;
+
+    private final HmacAlgorithm hs256;
+    private final HmacAlgorithm hs384;
+    private final HmacAlgorithm hs512;
+
+    private final ValidationStages stages = new ValidationStages();
+    private final JtiReplayDetector replayDetector;
+
+    public HMACSignatureValidator(byte[] secret,
+                                  PrincipalExtractor principalExtractor,
+                                  String validIssuerUri,
+                                  boolean checkAccessTokenType,
+                                  String audience) {
+        this(secret, principalExtractor, validIssuerUri, checkAccessTokenType, audience, null, null);
+    }
+
+    /**
+     * Create a validator that keeps the specified claims of the validated tokens available through {@link TokenInfo#claim(String)},
+     * and optionally rejects the replayed tokens.
+     */
+    public HMACSignatureValidator(byte[] secret,
+                                  PrincipalExtractor principalExtractor,
+                                  String validIssuerUri,
+                                  boolean checkAccessTokenType,
+                                  String audience,
+                                  List<String> retainedClaims,
+                                  JtiReplayDetector replayDetector) {
+
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("secret is empty");
+        }
+        if (secret.length < 32) {
+            throw new IllegalArgumentException("secret has to be at least 32 bytes long (is: " + secret.length + ")");
+        }
+
+        this.hs256 = new HmacAlgorithm("HS256", "HmacSHA256", 32, secret);
+        this.hs384 = new HmacAlgorithm("HS384", "HmacSHA384", 48, secret);
+        this.hs512 = new HmacAlgorithm("HS512", "HmacSHA512", 64, secret);
+
+        this.claimsValidator = new JWTClaimsValidator(principalExtractor, validIssuerUri, checkAccessTokenType, audience, retainedClaims);
+        this.decoder = claimsValidator.createDecoder();
+        this.replayDetector = replayDetector;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Configured HMACSignatureValidator:\n    secretLength: " + secret.length
+                    + "\n    claimsValidator: " + claimsValidator
+                    + "\n    replayDetector: " + replayDetector
+                    + "\n    enabledAlgorithms: " + (hs512.enabled ? "HS256, HS384, HS512" : hs384.enabled ? "HS256, HS384" : "HS256"));
+        }
+    }
+
+    /**
+     * Read the secret from the file. The trailing line breaks are not considered part of the secret.
+     *
+     * @param path The path to the file
+     * @return The secret
+     */
+    public static byte[] readSecret(String path) {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the secret file: " + path, e);
+        }
+        int len = content.length;
+        while (len > 0 && (content[len - 1] == '\n' || content[len - 1] == '\r')) {
+            len--;
+        }
+        byte[] result = Arrays.copyOf(content, len);
+        Arrays.fill(content, (byte) 0);
+        return result;
+    }
+
+    public TokenInfo validate(String token) {
+        return validate(token, stages);
+    }
+
+    /**
+     * Validate the token in stages ordered by their cost, so that the token is rejected as early as possible.
+     *
+     * The checks return the reason for rejecting the token, which is only turned into an exception here.
+     */
+    private TokenInfo validate(String token, ValidationStages stages) {
+        ValidationStages.Stage stage = ValidationStages.Stage.DECODE;
+        long start = System.nanoTime();
+        DecodedToken t;
+        TokenInfo result;
+        try {
+            t = decoder.decode(token);
+            start = stages.passed(stage, start);
+
+            stage = ValidationStages.Stage.CLAIMS;
+            ValidationFailure failure = claimsValidator.checkClaims(t);
+            if (failure != null) {
+                throw failure.toException();
+            }
+            start = stages.passed(stage, start);
+
+            stage = ValidationStages.Stage.SIGNATURE;
+            failure = checkSignature(t);
+            if (failure != null) {
+                throw failure.toException();
+            }
+            start = stages.passed(stage, start);
+
+            stage = ValidationStages.Stage.PRINCIPAL;
+            result = claimsValidator.createTokenInfo(token, t);
+            stages.passed(stage, start);
+
+        } catch (RuntimeException e) {
+            stages.rejected(stage, start);
+            throw e;
+        }
+
+        if (replayDetector != null) {
+            ValidationFailure failure = replayDetector.check(t.jti(), result.expiresAtMs(), stages);
+            if (failure != null) {
+                throw failure.toException();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the counters and the time spent in each validation stage, which show where the tokens are rejected.
+     *
+     * @return The validation stages metrics
+     */
+    public ValidationStages getValidationStages() {
+        return stages;
+    }
+
+    /**
+     * The validation is performed locally, and is very cheap, so it is performed on the calling thread,
+     * rather than handed off to the executor.
+     */
+    @Override
+    public CompletableFuture<TokenInfo> validateAsync(String token, Executor executor) {
+        CompletableFuture<TokenInfo> result = new CompletableFuture<>();
+        try {
+            result.complete(validate(token));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void warmUp(int iterations) {
+        List<String> tokens = new ArrayList<>();
+        for (HmacAlgorithm alg: new HmacAlgorithm[] {hs256, hs384, hs512}) {
+            if (alg.enabled) {
+                tokens.add(ValidatorWarmUp.createToken(claimsValidator, alg.name, null, alg.length));
+            }
+        }
+        // Not counted with the actual validations
+        ValidationStages warmUpStages = new ValidationStages();
+        ValidatorWarmUp.run(iterations, tokens, token -> validate(token, warmUpStages), decoder, claimsValidator);
+    }
+
+    /**
+     * @return The reason for rejecting the token, or null if the signature is valid
+     */
+    private ValidationFailure checkSignature(DecodedToken t) {
+        String algorithm = t.algorithm();
+        HmacAlgorithm alg = null;
+        if ("HS256".equals(algorithm)) {
+            alg = hs256;
+        } else if ("HS384".equals(algorithm)) {
+            alg = hs384;
+        } else if ("HS512".equals(algorithm)) {
+            alg = hs512;
+        }
+        if (alg == null) {
+            return ValidationFailure.invalid(() -> "Token validation failed: Unsupported signing algorithm: " + algorithm);
+        }
+        if (!alg.enabled) {
+            return ValidationFailure.invalid(() -> "Token validation failed: The secret is too short for signing algorithm: " + algorithm);
+        }
+        if (!alg.verify(t.signingInput, t.signingInputLength, t.signature, t.signatureLength)) {
+            return ValidationFailure.INVALID_SIGNATURE;
+        }
+        return null;
+    }
+
+    static class HmacAlgorithm {
+
+        private final String name;
+        private final String javaAlgorithm;
+        private final int length;
+        private final boolean enabled;
+        private final SecretKeySpec key;
+
+        private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::createMac);
+        private final ThreadLocal<byte[]> output;
+
+        HmacAlgorithm(String name, String javaAlgorithm, int length, byte[] secret) {
+            this.name = name;
+            this.javaAlgorithm = javaAlgorithm;
+            this.length = length;
+            this.enabled = secret.length >= length;
+            this.key = new SecretKeySpec(secret, javaAlgorithm);
+            this.output = ThreadLocal.withInitial(() -> new byte[length]);
+        }
+
+        private Mac createMac() {
+            try {
+                Mac result = Mac.getInstance(javaAlgorithm);
+                result.init(key);
+                return result;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Failed to initialise " + javaAlgorithm + " for " + name, e);
+            }
+        }
+
+        boolean verify(byte[] data, int dataLen, byte[] signature, int signatureLen) {
+            if (signatureLen != length) {
+                return false;
+            }
+            Mac m = mac.get();
+            byte[] expected = output.get();
+            try {
+                m.update(data, 0, dataLen);
+                // doFinal() also resets the instance so it can be reused
+                m.doFinal(expected, 0);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                mac.remove();
+                throw new TokenValidationException("Token validation failed:", e).retriable();
+            }
+
+            // Constant time comparison
+            int diff = 0;
+            for (int i = 0; i < length; i++) {
+                diff |= expected[i] ^ signature[i];
+            }
+            return diff == 0;
+        }
+    }
+}
@@ -0,0 +1,864 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import io.strimzi.kafka.oauth.common.ConditionalResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.strimzi.kafka.oauth.common.HttpUtil;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+import io.strimzi.kafka.oauth.common.PemUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.util.JWKSUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * The public keys fetched from the JWKS endpoint, and kept up to date by a background refresh job.
+ *
+ * If the keys endpoint uri is a 'file' uri, the keys are read from the local JWKS file, or from the directory of PEM
+ * encoded public keys, named by the key id, and read again whenever the contents of the directory change.
+ * Such keys never expire.
+ *
+ * A single instance can be shared by many validators - see {@link JWKSKeySourceRegistry}.
+ * When no longer needed, it has to be closed to stop the refresh job.
+ */
+public class JWKSKeySource {
+
+    private static final Logger log = LoggerFactory.getLogger(JWKSKeySource.class);
+
+    private static final int ON_DEMAND_REFRESH_TIMEOUT_SECONDS = 10;
+
+    private static final long INITIAL_REFRESH_BACKOFF_MILLIS = 1000;
+
+    // How long the watched directory has to stay unchanged before the keys are read again
+    private static final long WATCH_SETTLE_MILLIS = 100;
+
+    private static AtomicBoolean bouncyInstalled =  new AtomicBoolean(false);
+
+    private final ScheduledExecutorService scheduler;
+
+    private final URI keysUri;
+    private final SSLSocketFactory socketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    private final int maxStaleSeconds;
+    private final Path snapshotFile;
+
+    // For the 'file' keys uri
+    private final Path keysPath;
+    private final WatchService watchService;
+
+    private final long refreshMillis;
+    private final long minRefreshPauseMillis;
+    private final boolean staleWhileRevalidate;
+    private final boolean useCacheControl;
+    private final SignatureProviders signatureProviders;
+
+    private volatile KeysSnapshot keys = new KeysSnapshot(Collections.emptyMap(), null, 0, null, null, -1);
+
+    private final AtomicReference<CompletableFuture<KeysSnapshot>> refreshInFlight = new AtomicReference<>();
+
+    private volatile long lastRefreshStartTime;
+
+    private volatile long lastRefreshEndTime;
+
+    // Refresh metrics - only updated by the thread performing the refresh
+    private volatile long refreshCount;
+    private volatile long refreshFailureCount;
+    private volatile long notModifiedCount;
+    private volatile int consecutiveRefreshFailures;
+    private volatile long lastRefreshFailureTime;
+
+    private final CopyOnWriteArrayList<Consumer<Map<String, PublicKeyVerifier>>> listeners = new CopyOnWriteArrayList<>();
+
+    public JWKSKeySource(String keysEndpointUri,
+                         SSLSocketFactory socketFactory,
+                         HostnameVerifier verifier,
+                         int refreshSeconds,
+                         int expirySeconds,
+                         int minRefreshPauseSeconds,
+                         boolean staleWhileRevalidate,
+                         boolean useCacheControl,
+                         boolean enableBouncyCastleProvider,
+                         int bouncyCastleProviderPosition,
+                         String snapshotFile) {
+        this(keysEndpointUri, socketFactory, verifier, refreshSeconds, expirySeconds, minRefreshPauseSeconds, staleWhileRevalidate,
+                useCacheControl, enableBouncyCastleProvider, bouncyCastleProviderPosition, snapshotFile, SignatureProviders.DEFAULT);
+    }
+
+    @SuppressWarnings("checkstyle:NPathComplexity")
+    public JWKSKeySource(String keysEndpointUri,
+                         SSLSocketFactory socketFactory,
+                         HostnameVerifier verifier,
+                         int refreshSeconds,
+                         int expirySeconds,
+                         int minRefreshPauseSeconds,
+                         boolean staleWhileRevalidate,
+                         boolean useCacheControl,
+                         boolean enableBouncyCastleProvider,
+                         int bouncyCastleProviderPosition,
+                         String snapshotFile,
+                         SignatureProviders signatureProviders) {
+
+        if (keysEndpointUri == null) {
+            throw new IllegalArgumentException("keysEndpointUri == null");
+        }
+        try {
+            this.keysUri = new URI(keysEndpointUri);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid keysEndpointUri: " + keysEndpointUri, e);
+        }
+        this.keysPath = "file".equals(keysUri.getScheme()) ? Paths.get(keysUri) : null;
+
+        if (socketFactory != null && !"https".equals(keysUri.getScheme())) {
+            throw new IllegalArgumentException("SSL socket factory set but keysEndpointUri not 'https'");
+        }
+        this.socketFactory = socketFactory;
+
+        if (verifier != null && !"https".equals(keysUri.getScheme())) {
+            throw new IllegalArgumentException("Certificate hostname verifier set but keysEndpointUri not 'https'");
+        }
+        this.hostnameVerifier = verifier;
+
+        if (expirySeconds < refreshSeconds + 60) {
+            throw new IllegalArgumentException("expirySeconds has to be at least 60 seconds longer than refreshSeconds");
+        }
+        this.maxStaleSeconds = keysPath != null ? Integer.MAX_VALUE : expirySeconds;
+        this.refreshMillis = refreshSeconds * 1000L;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.useCacheControl = useCacheControl;
+
+        if (minRefreshPauseSeconds < 0) {
+            throw new IllegalArgumentException("minRefreshPauseSeconds can't be negative");
+        }
+        this.minRefreshPauseMillis = minRefreshPauseSeconds * 1000L;
+        this.snapshotFile = snapshotFile != null ? Paths.get(snapshotFile) : null;
+        this.signatureProviders = signatureProviders;
+
+        if (enableBouncyCastleProvider && !bouncyInstalled.getAndSet(true)) {
+            installBouncyCastleProvider(bouncyCastleProviderPosition);
+        }
+
+        // If the keys saved by the previous run are still valid, use them, and refresh them in the background.
+        // That way the startup doesn't depend on the availability of the keys endpoint.
+        boolean loaded = keysPath == null && loadSnapshot();
+        if (!loaded) {
+            fetchKeys();
+        }
+
+        // set up periodic timer to update keys from server every refreshSeconds;
+        // on-demand refreshes run on the same thread so that fetches never overlap
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+        if (keysPath == null) {
+            scheduleRefresh(loaded ? 0 : nextRefreshDelayMillis());
+            watchService = null;
+        } else {
+            watchService = watchKeysPath();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Configured JWKSKeySource:\n    keysEndpointUri: " + keysEndpointUri
+                    + "\n    sslSocketFactory: " + socketFactory
+                    + "\n    hostnameVerifier: " + hostnameVerifier
+                    + "\n    certsRefreshSeconds: " + refreshSeconds
+                    + "\n    certsExpirySeconds: " + expirySeconds
+                    + "\n    minRefreshPauseSeconds: " + minRefreshPauseSeconds
+                    + "\n    staleWhileRevalidate: " + staleWhileRevalidate
+                    + "\n    useCacheControl: " + useCacheControl
+                    + "\n    enableBouncyCastleProvider: " + enableBouncyCastleProvider
+                    + "\n    bouncyCastleProviderPosition: " + bouncyCastleProviderPosition
+                    + "\n    snapshotFile: " + snapshotFile
+                    + "\n    signatureProviders: " + signatureProviders);
+        }
+    }
+
+    private static void installBouncyCastleProvider(int position) {
+        int installedPosition = Security.insertProviderAt(new BouncyCastleProvider(), position);
+        log.info("BouncyCastle security provider installed at position: " + installedPosition);
+
+        if (log.isDebugEnabled()) {
+            StringBuilder sb = new StringBuilder("Installed security providers:\n");
+            for (Provider p: Security.getProviders()) {
+                sb.append("  - " + p.toString() + "  [" + p.getClass().getName() + "]\n");
+                sb.append("   " + p.getInfo() + "\n");
+            }
+            log.debug(sb.toString());
+        }
+    }
+
+    public URI getKeysUri() {
+        return keysUri;
+    }
+
+    /**
+     * @return The configured interval between the periodic refreshes of the keys
+     */
+    public long getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    /**
+     * Get the verifier for the key id. If the key is not known, or the keys have expired, the keys may be refreshed first.
+     *
+     * The unknown key id only triggers the refresh, and waits for it, if the last refresh ended more than
+     * <code>minRefreshPauseMillis</code> ago. Otherwise the key is reported as missing right away, so that the tokens
+     * with bogus key ids can't keep the calling threads waiting for one refresh after another.
+     *
+     * @param id The key id
+     * @return The verifier, or null if there is no valid key with the id
+     */
+    public PublicKeyVerifier getVerifier(String id) {
+        KeysSnapshot current = keys;
+        if (current.isStale(maxStaleSeconds)) {
+            current = refreshStaleKeys(current);
+            if (current == null) {
+                log.warn("The cached public key with id '" + id + "' is expired!");
+                return null;
+            }
+        }
+        PublicKeyVerifier result = current.verifiers.get(id);
+        if (result == null) {
+            if (System.currentTimeMillis() - lastRefreshEndTime < minRefreshPauseMillis) {
+                log.warn("No public key for id: " + id + " (keys refreshed less than " + minRefreshPauseMillis + " ms ago)");
+                return null;
+            }
+            // The keys may have been rotated since the last refresh - try to pick up the new key right away
+            current = awaitRefresh(requestRefresh("unknown key id: " + id), "unknown key id: " + id);
+            result = current == null ? null : current.verifiers.get(id);
+            if (result == null) {
+                log.warn("No public key for id: " + id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the verifiers for the keys that can be used with the signing algorithm, for the tokens that don't specify the key id.
+     *
+     * Unlike {@link #getVerifier(String)} this doesn't trigger the refresh of the keys, unless they are expired.
+     *
+     * @param algorithm JWS signing algorithm
+     * @return The verifiers for the keys of the matching type, which may be empty
+     */
+    public List<PublicKeyVerifier> getVerifiersForAlgorithm(String algorithm) {
+        KeysSnapshot current = keys;
+        if (current.isStale(maxStaleSeconds)) {
+            current = refreshStaleKeys(current);
+            if (current == null) {
+                log.warn("The cached public keys are expired!");
+                return Collections.emptyList();
+            }
+        }
+        List<PublicKeyVerifier> result = current.verifiersByKeyType.get(keyType(algorithm));
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * @return The type of key used with the JWS signing algorithm - for EC, the key type includes the curve size
+     */
+    private static String keyType(String algorithm) {
+        if (algorithm == null) {
+            return null;
+        }
+        if (algorithm.startsWith("RS") || algorithm.startsWith("PS")) {
+            return "RSA";
+        }
+        return algorithm.startsWith("ES") ? algorithm : null;
+    }
+
+    private static String keyType(PublicKey key) {
+        return key instanceof RSAPublicKey ? "RSA" : SignatureProviders.defaultAlgorithm(key);
+    }
+
+    /**
+     * Check if the verifier obtained before is still the valid one for the key id, without triggering any refresh.
+     *
+     * @param id The key id
+     * @param verifier The verifier previously returned by {@link #getVerifier(String)}
+     * @return true if the verifier can still be used
+     */
+    public boolean isKeyCurrent(String id, PublicKeyVerifier verifier) {
+        KeysSnapshot current = keys;
+        return (staleWhileRevalidate || !current.isStale(maxStaleSeconds)) && current.verifiers.get(id) == verifier;
+    }
+
+    /**
+     * Register a listener to be notified with the new verifiers after the keys have changed.
+     *
+     * @param listener The listener
+     */
+    public void addKeysListener(Consumer<Map<String, PublicKeyVerifier>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeKeysListener(Consumer<Map<String, PublicKeyVerifier>> listener) {
+        listeners.remove(listener);
+    }
+
+    private KeysSnapshot refreshStaleKeys(KeysSnapshot current) {
+        if (staleWhileRevalidate) {
+            // Keep using the expired keys, while they are refreshed in the background
+            requestRefresh("expired keys");
+            return current;
+        }
+        KeysSnapshot refreshed = awaitRefresh(requestRefresh("expired keys"), "expired keys");
+        return refreshed == null || refreshed.isStale(maxStaleSeconds) ? null : refreshed;
+    }
+
+    /**
+     * Start refreshing the keys outside the regular schedule, unless the refresh is already in progress.
+     *
+     * All the callers that come in while a refresh is in progress share the same refresh.
+     * A new refresh is only started if at least <code>minRefreshPauseMillis</code> have passed since the last one started,
+     * so that the tokens with bogus key ids can't be used to flood the keys endpoint.
+     *
+     * @param reason The reason for refresh used for logging
+     * @return The refresh in progress, or null if the refresh was not started because the last one was too recent
+     */
+    private CompletableFuture<KeysSnapshot> requestRefresh(String reason) {
+        CompletableFuture<KeysSnapshot> refresh = refreshInFlight.get();
+        if (refresh != null) {
+            return refresh;
+        }
+        if (System.currentTimeMillis() - lastRefreshStartTime < minRefreshPauseMillis) {
+            log.debug("Not refreshing keys for " + reason + " - last refresh too recent");
+            return null;
+        }
+
+        CompletableFuture<KeysSnapshot> newRefresh = new CompletableFuture<>();
+        if (!refreshInFlight.compareAndSet(null, newRefresh)) {
+            refresh = refreshInFlight.get();
+            // Null means the concurrent refresh has just completed
+            return refresh != null ? refresh : CompletableFuture.completedFuture(keys);
+        }
+        if (System.currentTimeMillis() - lastRefreshStartTime < minRefreshPauseMillis) {
+            // Another refresh has started and completed since the check above
+            complete(newRefresh, keys, null);
+            return newRefresh;
+        }
+        lastRefreshStartTime = System.currentTimeMillis();
+
+        log.debug("Refreshing keys for " + reason);
+        try {
+            scheduler.execute(() -> {
+                try {
+                    fetchKeys();
+                    complete(newRefresh, keys, null);
+                } catch (Throwable t) {
+                    complete(newRefresh, null, t);
+                }
+            });
+        } catch (RuntimeException e) {
+            complete(newRefresh, null, e);
+        }
+        return newRefresh;
+    }
+
+    private KeysSnapshot awaitRefresh(CompletableFuture<KeysSnapshot> refresh, String reason) {
+        if (refresh == null) {
+            // No refresh was started, but a refresh may have completed since the caller last looked at the keys
+            return keys;
+        }
+        try {
+            return refresh.get(ON_DEMAND_REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Failed to refresh keys for " + reason, e);
+            return null;
+        }
+    }
+
+    private void complete(CompletableFuture<KeysSnapshot> refresh, KeysSnapshot result, Throwable error) {
+        // Clear the in-flight refresh first, so no new caller can join the completed one
+        refreshInFlight.compareAndSet(refresh, null);
+        if (error != null) {
+            refresh.completeExceptionally(error);
+        } else {
+            refresh.complete(result);
+        }
+    }
+
+    private void scheduleRefresh(long delayMillis) {
+        try {
+            scheduler.schedule(this::scheduledRefresh, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Keys refresh not scheduled - the scheduler has been shut down");
+        }
+    }
+
+    /**
+     * The regular refresh job. Instead of running at a fixed rate it schedules its next run itself, so that
+     * a failed refresh does not cancel the subsequent ones, and is retried with exponential backoff.
+     */
+    private void scheduledRefresh() {
+        long delay = refreshMillis;
+        try {
+            fetchKeys();
+            delay = nextRefreshDelayMillis();
+        } catch (Throwable t) {
+            delay = backoffMillis(consecutiveRefreshFailures);
+            log.warn("Failed to refresh keys (consecutive failures: " + consecutiveRefreshFailures
+                    + ", keys age: " + getKeysAgeMillis() / 1000 + " s) - will retry in " + delay + " ms", t);
+        } finally {
+            scheduleRefresh(delay);
+        }
+    }
+
+    /**
+     * Exponential backoff capped at the regular refresh interval, with a random jitter of up to half the delay,
+     * so that brokers don't retry against the recovering authorization server in lock-step.
+     */
+    private long backoffMillis(int failures) {
+        long backoff = Math.min(refreshMillis, INITIAL_REFRESH_BACKOFF_MILLIS << Math.min(Math.max(failures - 1, 0), 20));
+        backoff = Math.max(backoff, minRefreshPauseMillis);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * If enabled, the refresh interval follows the 'Cache-Control' max-age of the keys endpoint response,
+     * but never allows the keys to come close to expiry.
+     */
+    private long nextRefreshDelayMillis() {
+        long maxAgeSeconds = keys.maxAgeSeconds;
+        if (!useCacheControl || maxAgeSeconds < 0) {
+            return refreshMillis;
+        }
+        long delay = Math.min(maxAgeSeconds * 1000L, maxStaleSeconds * 1000L - 60_000L);
+        return Math.max(delay, Math.max(minRefreshPauseMillis, INITIAL_REFRESH_BACKOFF_MILLIS));
+    }
+
+    private void fetchKeys() {
+        try {
+            if (keysPath != null) {
+                readKeys();
+            } else {
+                downloadKeys();
+            }
+        } finally {
+            lastRefreshEndTime = System.currentTimeMillis();
+        }
+    }
+
+    private void downloadKeys() {
+        lastRefreshStartTime = System.currentTimeMillis();
+        refreshCount++;
+
+        KeysSnapshot current = keys;
+        ConditionalResponse<JSONWebKeySet> response;
+        Map<String, PublicKey> newKeys = null;
+        try {
+            // Only send conditional request if the keys were fetched before
+            boolean hasKeys = current.jwks != null;
+            response = HttpUtil.getIfModified(keysUri, socketFactory, hostnameVerifier, null,
+                    hasKeys ? current.etag : null, hasKeys ? current.lastModified : null, JSONWebKeySet.class);
+            if (!response.isNotModified()) {
+                newKeys = JWKSUtils.getKeysForUse(response.body(), JWK.Use.SIG);
+            }
+        } catch (Exception ex) {
+            refreshFailureCount++;
+            consecutiveRefreshFailures++;
+            lastRefreshFailureTime = System.currentTimeMillis();
+            throw new RuntimeException("Failed to fetch public keys needed to validate JWT signatures: " + keysUri, ex);
+        }
+        consecutiveRefreshFailures = 0;
+
+        if (newKeys == null) {
+            // Keys have not changed - skip parsing, and only renew their expiry
+            notModifiedCount++;
+            log.debug("Keys not modified since the last refresh: " + keysUri);
+            keys = current.renew(System.currentTimeMillis(), response.etag(), response.lastModified(), response.maxAgeSeconds());
+            saveSnapshot(keys);
+            return;
+        }
+
+        updateKeys(newKeys, response.body(), System.currentTimeMillis(), response.etag(), response.lastModified(), response.maxAgeSeconds());
+        saveSnapshot(keys);
+    }
+
+    /**
+     * Read the keys from the JWKS file, or from the directory of PEM encoded public keys
+     */
+    private void readKeys() {
+        lastRefreshStartTime = System.currentTimeMillis();
+        refreshCount++;
+
+        JSONWebKeySet jwks = null;
+        Map<String, PublicKey> newKeys;
+        try {
+            if (Files.isDirectory(keysPath)) {
+                newKeys = readPemKeys(keysPath);
+            } else {
+                jwks = JSONUtil.MAPPER.readValue(keysPath.toFile(), JSONWebKeySet.class);
+                newKeys = JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG);
+            }
+            if (newKeys.isEmpty()) {
+                // Possibly caught in the middle of the update - keep the current keys
+                throw new IllegalStateException("No public keys found");
+            }
+        } catch (Exception ex) {
+            refreshFailureCount++;
+            consecutiveRefreshFailures++;
+            lastRefreshFailureTime = System.currentTimeMillis();
+            throw new RuntimeException("Failed to read public keys needed to validate JWT signatures: " + keysPath, ex);
+        }
+        consecutiveRefreshFailures = 0;
+
+        updateKeys(newKeys, jwks, System.currentTimeMillis(), null, null, -1);
+    }
+
+    /**
+     * Every file in the directory is expected to contain a PEM encoded public key or certificate, and is named by the key id,
+     * optionally followed by the extension, e.g. 'key1.pem'.
+     */
+    private static Map<String, PublicKey> readPemKeys(Path dir) throws IOException {
+        Map<String, PublicKey> result = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file: files) {
+                String name = file.getFileName().toString();
+                // Skip the hidden files, e.g. the data directories of the mounted Kubernetes secret
+                if (name.startsWith(".") || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                int dot = name.lastIndexOf('.');
+                String kid = dot > 0 ? name.substring(0, dot) : name;
+                try {
+                    result.put(kid, PemUtil.readPublicKey(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Failed to read public key from file: " + file, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start the thread that reads the keys again whenever anything changes in the directory of the keys file,
+     * or in the directory of PEM keys.
+     */
+    private WatchService watchKeysPath() {
+        Path dir = Files.isDirectory(keysPath) ? keysPath : keysPath.toAbsolutePath().getParent();
+        try {
+            WatchService result = dir.getFileSystem().newWatchService();
+            dir.register(result, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            new DaemonThreadFactory().newThread(() -> watchKeys(result)).start();
+            return result;
+        } catch (IOException e) {
+            scheduler.shutdownNow();
+            throw new RuntimeException("Failed to watch the public keys directory for changes: " + dir, e);
+        }
+    }
+
+    /**
+     * Kubernetes updates a mounted secret by replacing the symlink to its data directory, rather than by modifying
+     * the files, so any change in the watched directory causes the keys to be read again. A single update usually comes
+     * as a burst of events, so the keys are only read once the events stop.
+     *
+     * The keys are read on the refresh thread, so that they are never read concurrently with the on-demand refresh.
+     * If they fail to be read, the current keys are kept.
+     */
+    private void watchKeys(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        log.warn("Public keys directory no longer accessible - stopped watching it for changes: " + keysPath);
+                        return;
+                    }
+                    key = watcher.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                scheduler.execute(() -> {
+                    try {
+                        fetchKeys();
+                        log.debug("Public keys read after change: " + keysPath);
+                    } catch (Throwable t) {
+                        log.warn("Failed to read public keys after change (consecutive failures: " + consecutiveRefreshFailures
+                                + ") - keeping the current keys", t);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException | RejectedExecutionException e) {
+            log.debug("Stopped watching public keys for changes - key source closed: " + keysPath);
+        }
+    }
+
+    private void updateKeys(Map<String, PublicKey> newKeys, JSONWebKeySet jwks, long fetchTime, String etag, String lastModified, long maxAgeSeconds) {
+        KeysSnapshot current = keys;
+
+        // Only create verifiers for new or changed keys. Keeping the existing verifiers preserves
+        // their initialised signature instances, and the validated tokens signed by them remain cached.
+        Map<String, PublicKeyVerifier> oldVerifiers = current.verifiers;
+        Map<String, PublicKeyVerifier> newVerifiers = new HashMap<>();
+        boolean changed = newKeys.size() != oldVerifiers.size();
+        for (Map.Entry<String, PublicKey> e: newKeys.entrySet()) {
+            PublicKeyVerifier old = oldVerifiers.get(e.getKey());
+            if (old != null && old.hasKey(e.getValue())) {
+                newVerifiers.put(e.getKey(), old);
+            } else {
+                log.debug("New or changed public key with id: " + e.getKey());
+                newVerifiers.put(e.getKey(), new PublicKeyVerifier(e.getKey(), e.getValue(), signatureProviders));
+                changed = true;
+            }
+        }
+        keys = new KeysSnapshot(Collections.unmodifiableMap(newVerifiers), jwks, fetchTime, etag, lastModified, maxAgeSeconds);
+
+        if (!changed) {
+            return;
+        }
+        for (Consumer<Map<String, PublicKeyVerifier>> listener: listeners) {
+            try {
+                listener.accept(keys.verifiers);
+            } catch (RuntimeException e) {
+                log.warn("[IGNORED] Keys listener failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * Load the keys saved by the previous run, unless they are expired.
+     *
+     * @return true if the keys were loaded
+     */
+    private boolean loadSnapshot() {
+        if (snapshotFile == null || !Files.isReadable(snapshotFile)) {
+            return false;
+        }
+        try {
+            JsonNode node = JSONUtil.MAPPER.readTree(snapshotFile.toFile());
+            if (!keysUri.toString().equals(node.path("keys_uri").asText())) {
+                log.warn("Ignoring keys snapshot file for different keys endpoint: " + snapshotFile);
+                return false;
+            }
+            long fetchTime = node.path("fetch_time").asLong();
+            if (fetchTime + maxStaleSeconds * 1000L <= System.currentTimeMillis()) {
+                log.info("Ignoring expired keys snapshot file: " + snapshotFile);
+                return false;
+            }
+            JSONWebKeySet jwks = JSONUtil.MAPPER.treeToValue(node.path("jwks"), JSONWebKeySet.class);
+            updateKeys(JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG), jwks, fetchTime,
+                    node.path("etag").textValue(), node.path("last_modified").textValue(), -1);
+        } catch (Exception e) {
+            log.warn("[IGNORED] Failed to load keys snapshot file: " + snapshotFile, e);
+            return false;
+        }
+        log.info("Loaded keys from snapshot file: " + snapshotFile + " (keys age: " + getKeysAgeMillis() / 1000 + " s)");
+        return true;
+    }
+
+    /**
+     * Atomically replace the snapshot file with the current keys, so that a concurrently starting broker
+     * never sees a partially written file.
+     */
+    private void saveSnapshot(KeysSnapshot snapshot) {
+        if (snapshotFile == null) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            ObjectNode node = JSONUtil.MAPPER.createObjectNode();
+            node.put("keys_uri", keysUri.toString());
+            node.put("fetch_time", snapshot.fetchTime);
+            node.put("etag", snapshot.etag);
+            node.put("last_modified", snapshot.lastModified);
+            node.set("jwks", JSONUtil.MAPPER.valueToTree(snapshot.jwks));
+
+            Path dir = snapshotFile.toAbsolutePath().getParent();
+            tmp = Files.createTempFile(dir, snapshotFile.getFileName().toString(), ".tmp");
+            JSONUtil.MAPPER.writeValue(tmp.toFile(), node);
+            Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+        } catch (Exception e) {
+            log.warn("[IGNORED] Failed to save keys snapshot file: " + snapshotFile, e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    log.debug("[IGNORED] Failed to delete temporary file: " + tmp, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The current verifiers by key id, which may be stale
+     */
+    public Map<String, PublicKeyVerifier> getVerifiers() {
+        return keys.verifiers;
+    }
+
+    /**
+     * @return The number of attempts to fetch the keys, successful or not
+     */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+
+    /**
+     * @return The number of refreshes where the keys endpoint responded with '304 Not Modified'
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    /**
+     * @return The number of failed attempts to fetch the keys
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount;
+    }
+
+    /**
+     * @return The number of failed attempts to fetch the keys since the last successful one
+     */
+    public int getConsecutiveRefreshFailures() {
+        return consecutiveRefreshFailures;
+    }
+
+    /**
+     * @return The time of the last failed attempt to fetch the keys in millis, or 0 if there was none
+     */
+    public long getLastRefreshFailureTime() {
+        return lastRefreshFailureTime;
+    }
+
+    /**
+     * @return The time in millis since the keys currently in use were fetched
+     */
+    public long getKeysAgeMillis() {
+        return System.currentTimeMillis() - keys.fetchTime;
+    }
+
+    /**
+     * Stop the refresh job
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("[IGNORED] Failed to close the watch service: ", e);
+            }
+        }
+        listeners.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "JWKSKeySource {keysUri: " + keysUri + ", keys: " + keys.verifiers.keySet() + "}";
+    }
+
+    /**
+     * An immutable view of the keys, as fetched from the keys endpoint at <code>fetchTime</code>,
+     * together with the response headers needed for the next conditional fetch
+     */
+    static class KeysSnapshot {
+
+        private final Map<String, PublicKeyVerifier> verifiers;
+        private final Map<String, List<PublicKeyVerifier>> verifiersByKeyType;
+        private final JSONWebKeySet jwks;
+        private final long fetchTime;
+        private final String etag;
+        private final String lastModified;
+        private final long maxAgeSeconds;
+
+        /**
+         * @param verifiers The unmodifiable verifiers, which are used as they are, without another wrapper
+         */
+        KeysSnapshot(Map<String, PublicKeyVerifier> verifiers, JSONWebKeySet jwks, long fetchTime, String etag, String lastModified, long maxAgeSeconds) {
+            this(verifiers, byKeyType(verifiers), jwks, fetchTime, etag, lastModified, maxAgeSeconds);
+        }
+
+        private KeysSnapshot(Map<String, PublicKeyVerifier> verifiers, Map<String, List<PublicKeyVerifier>> verifiersByKeyType,
+                             JSONWebKeySet jwks, long fetchTime, String etag, String lastModified, long maxAgeSeconds) {
+            this.verifiers = verifiers;
+            this.verifiersByKeyType = verifiersByKeyType;
+            this.jwks = jwks;
+            this.fetchTime = fetchTime;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        private static Map<String, List<PublicKeyVerifier>> byKeyType(Map<String, PublicKeyVerifier> verifiers) {
+            Map<String, List<PublicKeyVerifier>> result = new HashMap<>();
+            for (PublicKeyVerifier verifier: verifiers.values()) {
+                result.computeIfAbsent(keyType(verifier.getPublicKey()), k -> new ArrayList<>()).add(verifier);
+            }
+            return result;
+        }
+
+        /**
+         * @return The snapshot with the same keys, and the renewed fetch time and cache validators
+         */
+        KeysSnapshot renew(long fetchTime, String etag, String lastModified, long maxAgeSeconds) {
+            return new KeysSnapshot(verifiers, verifiersByKeyType, jwks, fetchTime, etag, lastModified, maxAgeSeconds);
+        }
+
+        boolean isStale(int maxStaleSeconds) {
+            return fetchTime + maxStaleSeconds * 1000L <= System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Use daemon thread for refresh job
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable r) {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
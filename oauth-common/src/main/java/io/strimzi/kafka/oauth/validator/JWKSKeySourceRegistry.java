@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A JVM-wide registry of key sources, which allows all the validators using the same JWKS endpoint with the same
+ * settings to share one set of keys, and one refresh job.
+ *
+ * Key sources are reference counted. Every {@link #acquire(String, Supplier)} has to be matched by
+ * a {@link #release(JWKSKeySource)}, and the last release closes the key source.
+ */
+public class JWKSKeySourceRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(JWKSKeySourceRegistry.class);
+
+    private static final Map<String, Entry> SOURCES = new HashMap<>();
+
+    /**
+     * Get the key source registered under the key, or create and register a new one.
+     *
+     * @param key The key that identifies the JWKS endpoint, the TLS settings, and the refresh settings
+     * @param factory The factory used to create a new key source if none is registered under the key
+     * @return The shared key source
+     */
+    public static synchronized JWKSKeySource acquire(String key, Supplier<JWKSKeySource> factory) {
+        Entry entry = SOURCES.get(key);
+        if (entry == null) {
+            entry = new Entry(factory.get());
+            SOURCES.put(key, entry);
+            log.debug("Registered new shared key source: " + entry.source);
+        } else {
+            log.debug("Reusing shared key source: " + entry.source);
+        }
+        entry.refCount++;
+        return entry.source;
+    }
+
+    /**
+     * Release the key source obtained with {@link #acquire(String, Supplier)}, and close it if no longer used.
+     *
+     * @param source The key source
+     */
+    public static synchronized void release(JWKSKeySource source) {
+        Iterator<Entry> it = SOURCES.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.source == source) {
+                if (--entry.refCount == 0) {
+                    it.remove();
+                    log.debug("Closing shared key source no longer in use: " + source);
+                    source.close();
+                }
+                return;
+            }
+        }
+        log.warn("[IGNORED] Released key source is not registered: " + source);
+    }
+
+    static synchronized int size() {
+        return SOURCES.size();
+    }
+
+    static class Entry {
+
+        private final JWKSKeySource source;
+        private int refCount;
+
+        Entry(JWKSKeySource source) {
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+import io.strimzi.kafka.oauth.common.PrincipalExtractor;
+import io.strimzi.kafka.oauth.common.TimeUtil;
+import io.strimzi.kafka.oauth.common.TokenInfo;
+import org.apache.kafka.common.utils.Time;
+import org.keycloak.util.TokenUtil;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The checks of the JWT token claims, and the principal extraction, common to all the validators that check
+ * the token signature locally.
+ */
+class JWTClaimsValidator {
+
+    private static final ValidationFailure ALGORITHM_NOT_SPECIFIED = ValidationFailure.invalid(() -> "Token validation failed: Signing algorithm not specified");
+    private static final ValidationFailure AUDIENCE_NOT_AVAILABLE = ValidationFailure.invalid(() -> "Token validation failed: Expected audience not available in the token");
+
+    private final String issuerUri;
+    private final boolean checkAccessTokenType;
+    private final String audience;
+    private final PrincipalExtractor principalExtractor;
+    private final List<String> retainedClaims;
+
+    JWTClaimsValidator(PrincipalExtractor principalExtractor, String validIssuerUri, boolean checkAccessTokenType, String audience,
+                       List<String> retainedClaims) {
+        if (validIssuerUri != null) {
+            try {
+                new URI(validIssuerUri);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Value of validIssuerUri not a valid URI: " + validIssuerUri, e);
+            }
+        }
+        this.issuerUri = validIssuerUri;
+        this.checkAccessTokenType = checkAccessTokenType;
+        this.audience = audience;
+        this.principalExtractor = principalExtractor;
+        this.retainedClaims = retainedClaims == null ? Collections.emptyList() : retainedClaims;
+    }
+
+    /**
+     * @return The decoder that extracts the claims needed by this validator
+     */
+    JWTDecoder createDecoder() {
+        List<String> claims = new ArrayList<>(retainedClaims);
+        claims.add(principalExtractor.getUsernameClaim());
+        claims.add(principalExtractor.getFallbackUsernameClaim());
+        return new JWTDecoder(claims.toArray(new String[0]));
+    }
+
+    /**
+     * Check the header and the claims of the decoded token. This is cheap compared to the signature check,
+     * so it is performed first, in order to reject the expired tokens, or the tokens meant for someone else,
+     * without the signature check.
+     *
+     * @param t The decoded token
+     * @return The reason for rejecting the token, or null if the claims are valid
+     */
+    ValidationFailure checkClaims(DecodedToken t) {
+        if (t.algorithm() == null || "none".equalsIgnoreCase(t.algorithm())) {
+            return ALGORITHM_NOT_SPECIFIED;
+        }
+        if (issuerUri != null && !issuerUri.equals(t.issuer())) {
+            String issuer = t.issuer();
+            return ValidationFailure.invalid(() -> "Token validation failed: Invalid token issuer. Expected '" + issuerUri + "', but was '" + issuer + "'");
+        }
+        if (checkAccessTokenType && !TokenUtil.TOKEN_TYPE_BEARER.equalsIgnoreCase(t.type())) {
+            String type = t.type();
+            return ValidationFailure.invalid(() -> "Token validation failed: Token type is incorrect. Expected '" + TokenUtil.TOKEN_TYPE_BEARER + "' but was '" + type + "'");
+        }
+        if (audience != null && !t.hasAudience(audience)) {
+            return AUDIENCE_NOT_AVAILABLE;
+        }
+
+        long now = Time.SYSTEM.milliseconds();
+        long expiresMillis = t.exp() == null ? 0 : t.exp() * 1000L;
+        if (now > expiresMillis) {
+            return ValidationFailure.expired(() -> "Token expired at: " + expiresMillis + " (" +
+                    TimeUtil.formatIsoDateTimeUTC(expiresMillis) + ")");
+        }
+        if (t.nbf() != null && now < t.nbf() * 1000L) {
+            long notBeforeMillis = t.nbf() * 1000L;
+            return ValidationFailure.invalid(() -> "Token validation failed: Token not valid before: " + notBeforeMillis + " (" +
+                    TimeUtil.formatIsoDateTimeUTC(notBeforeMillis) + ")");
+        }
+        return null;
+    }
+
+    /**
+     * Extract the principal from the token that passed all the checks.
+     *
+     * @param token The raw token
+     * @param t The decoded token
+     * @return The TokenInfo for the valid token
+     */
+    TokenInfo createTokenInfo(String token, DecodedToken t) {
+        String principal = null;
+        if (principalExtractor.isConfigured()) {
+            principal = principalExtractor.getPrincipal(t::claim);
+        }
+        if (principal == null && !principalExtractor.isConfigured()) {
+            principal = t.subject();
+        }
+        if (principal == null) {
+            throw new RuntimeException("Failed to extract principal - check usernameClaim, fallbackUsernameClaim configuration");
+        }
+        return new JWTTokenInfo(token, t.scope(), principal, t.iat() == null ? 0 : t.iat() * 1000L, t.exp() * 1000L, retainClaims(t));
+    }
+
+    /**
+     * Only the configured claims are kept with the TokenInfo for the lifetime of the session
+     */
+    private Map<String, String> retainClaims(DecodedToken t) {
+        if (retainedClaims.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new HashMap<>(retainedClaims.size() * 2);
+        for (String name: retainedClaims) {
+            String value = t.claim(name);
+            if (value != null) {
+                result.put(name, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the token payload that passes the claims checks, and from which the principal can be extracted.
+     *
+     * @param expiresAtSeconds The value of 'exp' claim
+     * @return The payload JSON
+     */
+    String createWarmUpPayload(long expiresAtSeconds) {
+        ObjectNode payload = JSONUtil.MAPPER.createObjectNode();
+        if (issuerUri != null) {
+            payload.put("iss", issuerUri);
+        }
+        payload.put("typ", TokenUtil.TOKEN_TYPE_BEARER);
+        if (audience != null) {
+            payload.put("aud", audience);
+        }
+        payload.put("sub", "warm-up");
+        if (principalExtractor.getUsernameClaim() != null) {
+            payload.put(principalExtractor.getUsernameClaim(), "warm-up");
+        }
+        payload.put("exp", expiresAtSeconds);
+        payload.put("iat", expiresAtSeconds - 60);
+        return payload.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "JWTClaimsValidator {validIssuerUri: " + issuerUri + ", checkAccessTokenType: " + checkAccessTokenType
+                + ", audience: " + audience + ", principalExtractor: " + principalExtractor + ", retainedClaims: " + retainedClaims + "}";
+    }
+}
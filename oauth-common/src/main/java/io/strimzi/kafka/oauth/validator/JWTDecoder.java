@@ -0,0 +1,480 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+/**
+ * A single pass JWT decoder used on the token validation hot path.
+ *
+ * Rather than binding the whole token into an <code>AccessToken</code> object, it base64url-decodes the header and
+ * the payload into per-thread buffers, and streams through them with a Jackson <code>JsonParser</code>,
+ * only picking out the claims needed for validation - <em>exp</em>, <em>iat</em>, <em>iss</em>, <em>typ</em>,
+ * <em>sub</em>, <em>aud</em>, <em>scope</em>, and the additional claims specified at construction time
+ * (e.g. the claims used to extract the principal).
+ *
+ * Structured claim values are skipped without being materialised.
+ */
+public class JWTDecoder {
+
+    private static final JsonFactory FACTORY = JSONUtil.MAPPER.getFactory();
+
+    // Buffers larger than this are not kept around after use
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private static final int[] BASE64_DECODE = new int[128];
+
+    static {
+        Arrays.fill(BASE64_DECODE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_DECODE[alphabet.charAt(i)] = i;
+        }
+        BASE64_DECODE['-'] = 62;
+        BASE64_DECODE['_'] = 63;
+    }
+
+    private final String[] claimNames;
+
+    /**
+     * Create a new decoder
+     *
+     * @param claimNames Names of additional top level claims to extract (null values are ignored)
+     */
+    public JWTDecoder(String... claimNames) {
+        this.claimNames = Arrays.stream(claimNames).filter(Objects::nonNull).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Decode the token.
+     *
+     * @param token Raw JWT token
+     * @return Decoded token
+     * @throws TokenValidationException if the token is not a valid JWT token
+     */
+    public DecodedToken decode(String token) {
+        int len = token.length();
+        Buffers buffers = BUFFERS.get();
+        byte[] ascii = buffers.ascii(len);
+
+        int dot1 = -1;
+        int dot2 = -1;
+        for (int i = 0; i < len; i++) {
+            char c = token.charAt(i);
+            if (c > 127) {
+                throw invalid("Illegal character in token", null);
+            }
+            if (c == '.') {
+                if (dot1 == -1) {
+                    dot1 = i;
+                } else if (dot2 == -1) {
+                    dot2 = i;
+                } else {
+                    throw invalid("Too many token segments", null);
+                }
+            }
+            ascii[i] = (byte) c;
+        }
+        if (dot2 == -1) {
+            throw invalid("Token is not in JWS compact form", null);
+        }
+
+        DecodedToken result = new DecodedToken(claimNames);
+
+        byte[] json = buffers.json(Math.max(dot1, dot2 - dot1 - 1) * 3 / 4 + 3);
+        int n = base64UrlDecode(ascii, 0, dot1, json);
+        if (n < 0) {
+            throw invalid("Invalid base64url encoding of token header", null);
+        }
+        parseHeader(json, n, result);
+
+        n = base64UrlDecode(ascii, dot1 + 1, dot2 - dot1 - 1, json);
+        if (n < 0) {
+            throw invalid("Invalid base64url encoding of token payload", null);
+        }
+        parsePayload(json, n, result);
+
+        byte[] signature = buffers.signature((len - dot2 - 1) * 3 / 4 + 3);
+        n = base64UrlDecode(ascii, dot2 + 1, len - dot2 - 1, signature);
+        if (n < 0) {
+            throw invalid("Invalid base64url encoding of token signature", null);
+        }
+
+        result.signingInput = ascii;
+        result.signingInputLength = dot2;
+        result.signature = signature;
+        result.signatureLength = n;
+        return result;
+    }
+
+    /**
+     * Read the 'iss' claim of the token without decoding the header and the signature, and without checking the signature.
+     *
+     * @param token Raw JWT token
+     * @return The value of 'iss' claim, or null if not present
+     * @throws TokenValidationException if the token is not a valid JWT token
+     */
+    public static String readIssuer(String token) {
+        return readPayload(token, (json, len) -> {
+            try (JsonParser p = FACTORY.createParser(json, 0, len)) {
+                if (p.nextToken() != JsonToken.START_OBJECT) {
+                    throw invalid("Token payload is not a JSON object", null);
+                }
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.getCurrentName();
+                    JsonToken t = p.nextToken();
+                    if ("iss".equals(name)) {
+                        return stringValue(p, t);
+                    }
+                    p.skipChildren();
+                }
+                return null;
+            } catch (IOException e) {
+                throw invalid("Failed to parse token payload", e);
+            }
+        });
+    }
+
+    /**
+     * Decode the payload of the token for logging, without parsing it, and without checking the signature.
+     *
+     * @param token Raw JWT token
+     * @return The payload JSON
+     * @throws TokenValidationException if the token is not a valid JWT token
+     */
+    public static String readPayload(String token) {
+        return readPayload(token, (json, len) -> new String(json, 0, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the maximum nesting depth of the JSON objects and arrays in the token header and payload, without parsing them.
+     *
+     * @param token Raw JWT token
+     * @return The nesting depth - 1 for a flat JSON object
+     * @throws TokenValidationException if the token is not a valid JWT token
+     */
+    public static int readNestingDepth(String token) {
+        int dot1 = token.indexOf('.');
+        int dot2 = dot1 == -1 ? -1 : token.indexOf('.', dot1 + 1);
+        if (dot2 == -1) {
+            throw invalid("Token is not in JWS compact form", null);
+        }
+        int header = readSegment(token, 0, dot1, "header", JWTDecoder::nestingDepth);
+        int payload = readSegment(token, dot1 + 1, dot2, "payload", JWTDecoder::nestingDepth);
+        return Math.max(header, payload);
+    }
+
+    private static int nestingDepth(byte[] json, int len) {
+        int depth = 0;
+        int max = 0;
+        boolean inString = false;
+        for (int i = 0; i < len; i++) {
+            byte b = json[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                max = Math.max(max, ++depth);
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Decode the payload segment of the token into the thread's buffer, and pass it to the reader
+     */
+    private static <T> T readPayload(String token, BiFunction<byte[], Integer, T> reader) {
+        int dot1 = token.indexOf('.');
+        int dot2 = dot1 == -1 ? -1 : token.indexOf('.', dot1 + 1);
+        if (dot2 == -1) {
+            throw invalid("Token is not in JWS compact form", null);
+        }
+        return readSegment(token, dot1 + 1, dot2, "payload", reader);
+    }
+
+    private static <T> T readSegment(String token, int from, int to, String name, BiFunction<byte[], Integer, T> reader) {
+        int len = to - from;
+        Buffers buffers = BUFFERS.get();
+        byte[] ascii = buffers.ascii(len);
+        for (int i = 0; i < len; i++) {
+            char c = token.charAt(from + i);
+            if (c > 127) {
+                throw invalid("Illegal character in token", null);
+            }
+            ascii[i] = (byte) c;
+        }
+
+        byte[] json = buffers.json(len * 3 / 4 + 3);
+        int n = base64UrlDecode(ascii, 0, len, json);
+        if (n < 0) {
+            throw invalid("Invalid base64url encoding of token " + name, null);
+        }
+        return reader.apply(json, n);
+    }
+
+    private static void parseHeader(byte[] json, int len, DecodedToken result) {
+        try (JsonParser p = FACTORY.createParser(json, 0, len)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw invalid("Token header is not a JSON object", null);
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                if ("alg".equals(name)) {
+                    result.algorithm = stringValue(p, t);
+                } else if ("kid".equals(name)) {
+                    result.kid = stringValue(p, t);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw invalid("Failed to parse token header", e);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:CyclomaticComplexity")
+    private void parsePayload(byte[] json, int len, DecodedToken result) {
+        try (JsonParser p = FACTORY.createParser(json, 0, len)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw invalid("Token payload is not a JSON object", null);
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                int extra = claimIndex(name);
+
+                if (t == JsonToken.START_ARRAY || t == JsonToken.START_OBJECT) {
+                    if (t == JsonToken.START_ARRAY && "aud".equals(name)) {
+                        result.aud = readStringArray(p);
+                    } else if (t == JsonToken.START_ARRAY && "scope".equals(name)) {
+                        result.scope = String.join(" ", readStringArray(p));
+                    } else {
+                        p.skipChildren();
+                    }
+                    if (extra >= 0) {
+                        // Same as JsonNode.asText() for container nodes
+                        result.claimValues[extra] = "";
+                    }
+                    continue;
+                }
+
+                switch (name) {
+                    case "exp":
+                        result.exp = longValue(p, t, name);
+                        break;
+                    case "iat":
+                        result.iat = longValue(p, t, name);
+                        break;
+                    case "nbf":
+                        result.nbf = longValue(p, t, name);
+                        break;
+                    case "iss":
+                        result.iss = stringValue(p, t);
+                        break;
+                    case "typ":
+                        result.typ = stringValue(p, t);
+                        break;
+                    case "sub":
+                        result.sub = stringValue(p, t);
+                        break;
+                    case "jti":
+                        result.jti = stringValue(p, t);
+                        break;
+                    case "scope":
+                        result.scope = stringValue(p, t);
+                        break;
+                    case "aud":
+                        String aud = stringValue(p, t);
+                        result.aud = aud == null ? null : Collections.singletonList(aud);
+                        break;
+                    default:
+                }
+
+                if (extra >= 0) {
+                    // Same as JsonNode.asText() for value nodes
+                    result.claimValues[extra] = t == JsonToken.VALUE_NULL ? "null" : p.getText();
+                }
+            }
+        } catch (IOException e) {
+            throw invalid("Failed to parse token payload", e);
+        }
+    }
+
+    private int claimIndex(String name) {
+        for (int i = 0; i < claimNames.length; i++) {
+            if (claimNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String stringValue(JsonParser p, JsonToken t) throws IOException {
+        if (t == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (t.isStructStart()) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getText();
+    }
+
+    private static Long longValue(JsonParser p, JsonToken t, String name) throws IOException {
+        switch (t) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return p.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return (long) p.getDoubleValue();
+            case VALUE_STRING:
+                try {
+                    return Long.parseLong(p.getText());
+                } catch (NumberFormatException e) {
+                    throw invalid("Invalid value of '" + name + "' claim", e);
+                }
+            default:
+                throw invalid("Invalid value of '" + name + "' claim", null);
+        }
+    }
+
+    private static List<String> readStringArray(JsonParser p) throws IOException {
+        List<String> result = new ArrayList<>(2);
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == null) {
+                throw invalid("Unexpected end of token payload", null);
+            }
+            if (t.isStructStart()) {
+                p.skipChildren();
+            } else if (t != JsonToken.VALUE_NULL) {
+                result.add(p.getText());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode base64url encoded input without padding, as required by RFC 7515.
+     *
+     * The base64 alphabet, the padding, and the non-zero unused bits in the last character are rejected,
+     * so that every sequence of bytes has only one valid encoding, and the token can't be re-encoded
+     * into a different string that still passes the validation.
+     *
+     * @return Number of decoded bytes written to <code>dst</code>, or -1 if input is not valid
+     */
+    static int base64UrlDecode(byte[] src, int off, int len, byte[] dst) {
+        if (len % 4 == 1) {
+            return -1;
+        }
+
+        int o = 0;
+        int end = off + len;
+        int i = off;
+        while (i + 4 <= end) {
+            int a = sextet(src[i]);
+            int b = sextet(src[i + 1]);
+            int c = sextet(src[i + 2]);
+            int d = sextet(src[i + 3]);
+            if ((a | b | c | d) < 0) {
+                return -1;
+            }
+            int bits = a << 18 | b << 12 | c << 6 | d;
+            dst[o++] = (byte) (bits >> 16);
+            dst[o++] = (byte) (bits >> 8);
+            dst[o++] = (byte) bits;
+            i += 4;
+        }
+
+        int rest = end - i;
+        if (rest == 2) {
+            int a = sextet(src[i]);
+            int b = sextet(src[i + 1]);
+            if ((a | b) < 0 || (b & 0x0f) != 0) {
+                return -1;
+            }
+            dst[o++] = (byte) ((a << 18 | b << 12) >> 16);
+        } else if (rest == 3) {
+            int a = sextet(src[i]);
+            int b = sextet(src[i + 1]);
+            int c = sextet(src[i + 2]);
+            if ((a | b | c) < 0 || (c & 0x03) != 0) {
+                return -1;
+            }
+            int bits = a << 18 | b << 12 | c << 6;
+            dst[o++] = (byte) (bits >> 16);
+            dst[o++] = (byte) (bits >> 8);
+        }
+        return o;
+    }
+
+    private static int sextet(byte b) {
+        return b < 0 ? -1 : BASE64_DECODE[b];
+    }
+
+    private static TokenValidationException invalid(String message, Throwable cause) {
+        return ValidationFailure.invalid(() -> "Failed to parse JWT: " + message).toException(cause);
+    }
+
+    static class Buffers {
+
+        private byte[] ascii = new byte[2048];
+        private byte[] json = new byte[2048];
+        private byte[] signature = new byte[512];
+
+        byte[] ascii(int size) {
+            if (size > MAX_RETAINED_BUFFER_SIZE) {
+                return new byte[size];
+            }
+            if (ascii.length < size) {
+                ascii = new byte[size];
+            }
+            return ascii;
+        }
+
+        byte[] json(int size) {
+            if (size > MAX_RETAINED_BUFFER_SIZE) {
+                return new byte[size];
+            }
+            if (json.length < size) {
+                json = new byte[size];
+            }
+            return json;
+        }
+
+        byte[] signature(int size) {
+            if (size > MAX_RETAINED_BUFFER_SIZE) {
+                return new byte[size];
+            }
+            if (signature.length < size) {
+                signature = new byte[size];
+            }
+            return signature;
+        }
+    }
+}
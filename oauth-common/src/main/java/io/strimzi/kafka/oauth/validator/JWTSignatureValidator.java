@@ -4,67 +4,46 @@
  */
 package io.strimzi.kafka.oauth.validator;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import io.strimzi.kafka.oauth.common.HttpUtil;
-import io.strimzi.kafka.oauth.common.JSONUtil;
+import io.strimzi.kafka.oauth.common.DigestUtil;
+import io.strimzi.kafka.oauth.common.ExpiringCache;
 import io.strimzi.kafka.oauth.common.PrincipalExtractor;
-import io.strimzi.kafka.oauth.common.TimeUtil;
 import io.strimzi.kafka.oauth.common.TokenInfo;
-import org.apache.kafka.common.utils.Time;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.keycloak.TokenVerifier;
-import org.keycloak.crypto.AsymmetricSignatureVerifierContext;
-import org.keycloak.crypto.KeyWrapper;
-import org.keycloak.exceptions.TokenSignatureInvalidException;
-import org.keycloak.jose.jwk.JSONWebKeySet;
-import org.keycloak.jose.jwk.JWK;
-import org.keycloak.representations.AccessToken;
-import org.keycloak.util.JWKSUtils;
-import org.keycloak.util.TokenUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSocketFactory;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.security.Provider;
-import java.security.PublicKey;
-import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import static io.strimzi.kafka.oauth.validator.TokenValidationException.Status;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class JWTSignatureValidator implements TokenValidator {
 
     private static final Logger log = LoggerFactory.getLogger(JWTSignatureValidator.class);
 
-    private static AtomicBoolean bouncyInstalled =  new AtomicBoolean(false);
-
-    private static final TokenVerifier.TokenTypeCheck TOKEN_TYPE_CHECK = new TokenVerifier.TokenTypeCheck(TokenUtil.TOKEN_TYPE_BEARER);
+    private final JWKSKeySource keySource;
+    private final boolean ownsKeySource;
 
-    private final ScheduledExecutorService scheduler;
+    private final JWTClaimsValidator claimsValidator;
+    private final JWTDecoder decoder;
 
-    private final URI keysUri;
-    private final String issuerUri;
-    private final int maxStaleSeconds;
-    private final boolean checkAccessTokenType;
-    private final String audience;
-    private final SSLSocketFactory socketFactory;
-    private final HostnameVerifier hostnameVerifier;
-    private final PrincipalExtractor principalExtractor;
+    private final ExpiringCache<String, ValidatedToken> validatedTokens;
+    private final ValidationStages stages = new ValidationStages();
+    private final JtiReplayDetector replayDetector;
 
-    private long lastFetchTime;
-
-    private Map<String, PublicKey> cache = new ConcurrentHashMap<>();
+    // For the tokens without the key id, the last key that verified the token, by issuer
+    private final ConcurrentHashMap<String, PublicKeyVerifier> lastVerifiersWithoutKid = new ConcurrentHashMap<>();
+    private final LongAdder tokensWithoutKidCount = new LongAdder();
+    private final LongAdder keysTriedWithoutKidCount = new LongAdder();
 
+    private final Consumer<Map<String, PublicKeyVerifier>> keysListener = this::onKeysChanged;
 
+    @SuppressWarnings("checkstyle:ParameterNumber")
     public JWTSignatureValidator(String keysEndpointUri,
                                  SSLSocketFactory socketFactory,
                                  HostnameVerifier verifier,
@@ -75,192 +54,348 @@ public class JWTSignatureValidator implements TokenValidator {
                                  boolean checkAccessTokenType,
                                  String audience,
                                  boolean enableBouncyCastleProvider,
-                                 int bouncyCastleProviderPosition) {
+                                 int bouncyCastleProviderPosition,
+                                 int validatedTokenCacheMaxSize,
+                                 int minRefreshPauseSeconds,
+                                 boolean staleWhileRevalidate,
+                                 boolean useCacheControl) {
+
+        this(new JWKSKeySource(keysEndpointUri,
+                    socketFactory,
+                    verifier,
+                    refreshSeconds,
+                    expirySeconds,
+                    minRefreshPauseSeconds,
+                    staleWhileRevalidate,
+                    useCacheControl,
+                    enableBouncyCastleProvider,
+                    bouncyCastleProviderPosition,
+                    null),
+                true,
+                principalExtractor,
+                validIssuerUri,
+                checkAccessTokenType,
+                audience,
+                validatedTokenCacheMaxSize,
+                null,
+                null);
+    }
 
-        if (keysEndpointUri == null) {
-            throw new IllegalArgumentException("keysEndpointUri == null");
-        }
-        try {
-            this.keysUri = new URI(keysEndpointUri);
-        } catch (URISyntaxException e) {
-            throw new IllegalArgumentException("Invalid keysEndpointUri: " + keysEndpointUri, e);
-        }
+    /**
+     * Create a validator that uses the keys from the existing, possibly shared, key source.
+     *
+     * The key source is not closed when the validator is closed.
+     */
+    public JWTSignatureValidator(JWKSKeySource keySource,
+                                 PrincipalExtractor principalExtractor,
+                                 String validIssuerUri,
+                                 boolean checkAccessTokenType,
+                                 String audience,
+                                 int validatedTokenCacheMaxSize) {
 
-        if (socketFactory != null && !"https".equals(keysUri.getScheme())) {
-            throw new IllegalArgumentException("SSL socket factory set but keysEndpointUri not 'https'");
-        }
-        this.socketFactory = socketFactory;
+        this(keySource, false, principalExtractor, validIssuerUri, checkAccessTokenType, audience, validatedTokenCacheMaxSize, null, null);
+    }
 
-        if (verifier != null && !"https".equals(keysUri.getScheme())) {
-            throw new IllegalArgumentException("Certificate hostname verifier set but keysEndpointUri not 'https'");
-        }
-        this.hostnameVerifier = verifier;
+    /**
+     * Create a validator that uses the keys from the existing, possibly shared, key source, keeps the specified
+     * claims of the validated tokens available through {@link TokenInfo#claim(String)}, and optionally rejects
+     * the replayed tokens.
+     *
+     * The key source is not closed when the validator is closed.
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public JWTSignatureValidator(JWKSKeySource keySource,
+                                 PrincipalExtractor principalExtractor,
+                                 String validIssuerUri,
+                                 boolean checkAccessTokenType,
+                                 String audience,
+                                 int validatedTokenCacheMaxSize,
+                                 List<String> retainedClaims,
+                                 JtiReplayDetector replayDetector) {
 
-        this.principalExtractor = principalExtractor;
+        this(keySource, false, principalExtractor, validIssuerUri, checkAccessTokenType, audience, validatedTokenCacheMaxSize,
+                retainedClaims, replayDetector);
+    }
 
-        if (validIssuerUri != null) {
-            try {
-                new URI(validIssuerUri);
-            } catch (URISyntaxException e) {
-                throw new IllegalArgumentException("Value of validIssuerUri not a valid URI: " + validIssuerUri, e);
-            }
+    private JWTSignatureValidator(JWKSKeySource keySource,
+                                  boolean ownsKeySource,
+                                  PrincipalExtractor principalExtractor,
+                                  String validIssuerUri,
+                                  boolean checkAccessTokenType,
+                                  String audience,
+                                  int validatedTokenCacheMaxSize,
+                                  List<String> retainedClaims,
+                                  JtiReplayDetector replayDetector) {
+
+        if (keySource == null) {
+            throw new IllegalArgumentException("keySource == null");
         }
-        this.issuerUri = validIssuerUri;
+        this.keySource = keySource;
+        this.ownsKeySource = ownsKeySource;
 
-        if (expirySeconds < refreshSeconds + 60) {
-            throw new IllegalArgumentException("expirySeconds has to be at least 60 seconds longer than refreshSeconds");
-        }
-        this.maxStaleSeconds = expirySeconds;
+        this.claimsValidator = new JWTClaimsValidator(principalExtractor, validIssuerUri, checkAccessTokenType, audience, retainedClaims);
+        this.decoder = claimsValidator.createDecoder();
 
-        this.checkAccessTokenType = checkAccessTokenType;
-        this.audience = audience;
+        this.validatedTokens = new ExpiringCache<>(validatedTokenCacheMaxSize);
+        this.replayDetector = replayDetector;
+        keySource.addKeysListener(keysListener);
 
-        if (enableBouncyCastleProvider && !bouncyInstalled.getAndSet(true)) {
-            int installedPosition = Security.insertProviderAt(new BouncyCastleProvider(), bouncyCastleProviderPosition);
-            log.info("BouncyCastle security provider installed at position: " + installedPosition);
+        if (log.isDebugEnabled()) {
+            log.debug("Configured JWTSignatureValidator:\n    keySource: " + keySource
+                    + "\n    ownsKeySource: " + ownsKeySource
+                    + "\n    principalExtractor: " + principalExtractor
+                    + "\n    validIssuerUri: " + validIssuerUri
+                    + "\n    checkAccessTokenType: " + checkAccessTokenType
+                    + "\n    validatedTokenCacheMaxSize: " + validatedTokenCacheMaxSize
+                    + "\n    replayDetector: " + replayDetector);
+        }
+    }
 
-            if (log.isDebugEnabled()) {
-                StringBuilder sb = new StringBuilder("Installed security providers:\n");
-                for (Provider p: Security.getProviders()) {
-                    sb.append("  - " + p.toString() + "  [" + p.getClass().getName() + "]\n");
-                    sb.append("   " + p.getInfo() + "\n");
-                }
-                log.debug(sb.toString());
-            }
+    private void onKeysChanged(Map<String, PublicKeyVerifier> verifiers) {
+        validatedTokens.removeIf((digest, v) -> verifiers.get(v.kid) != v.verifier);
+        if (log.isDebugEnabled() && validatedTokens.isEnabled()) {
+            log.debug("Validated token cache after keys refresh: " + validatedTokens);
         }
+    }
 
-        fetchKeys();
+    /**
+     * @return The key source providing the keys for signature validation, which exposes the refresh metrics
+     */
+    public JWKSKeySource getKeySource() {
+        return keySource;
+    }
 
-        // set up periodic timer to update keys from server every refreshSeconds;
-        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+    /**
+     * Get the cache of successfully validated tokens, which exposes the hit and miss counters.
+     *
+     * @return The validated token cache
+     */
+    public ExpiringCache<String, ?> getValidatedTokenCache() {
+        return validatedTokens;
+    }
 
-        scheduler.scheduleAtFixedRate(() -> fetchKeys(), refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    /**
+     * Get the counters and the time spent in each validation stage, which show where the tokens are rejected.
+     * The tokens served from the validated token cache are not counted.
+     *
+     * @return The validation stages metrics
+     */
+    public ValidationStages getValidationStages() {
+        return stages;
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("Configured JWTSignatureValidator:\n    keysEndpointUri: " + keysEndpointUri
-                    + "\n    sslSocketFactory: " + socketFactory
-                    + "\n    hostnameVerifier: " + hostnameVerifier
-                    + "\n    principalExtractor: " + principalExtractor
-                    + "\n    validIssuerUri: " + validIssuerUri
-                    + "\n    certsRefreshSeconds: " + refreshSeconds
-                    + "\n    certsExpirySeconds: " + expirySeconds
-                    + "\n    checkAccessTokenType: " + checkAccessTokenType
-                    + "\n    enableBouncyCastleProvider: " + enableBouncyCastleProvider
-                    + "\n    bouncyCastleProviderPosition: " + bouncyCastleProviderPosition);
-        }
+    /**
+     * @return The number of signature checks of the tokens without the key id
+     */
+    public long getTokensWithoutKidCount() {
+        return tokensWithoutKidCount.sum();
     }
 
-    private PublicKey getPublicKey(String id) {
-        return getKeyUnlessStale(id);
+    /**
+     * The number of keys tried divided by the number of tokens without the key id is close to 1
+     * if the key that verified the previous token is usually the right one.
+     *
+     * @return The total number of keys tried for the tokens without the key id
+     */
+    public long getKeysTriedWithoutKidCount() {
+        return keysTriedWithoutKidCount.sum();
     }
 
-    private PublicKey getKeyUnlessStale(String id) {
-        if (lastFetchTime + maxStaleSeconds * 1000L > System.currentTimeMillis()) {
-            PublicKey result = cache.get(id);
-            if (result == null) {
-                log.warn("No public key for id: " + id);
-            }
-            return result;
-        } else {
-            log.warn("The cached public key with id '" + id + "' is expired!");
-            return null;
-        }
+    /**
+     * @return The replay detector, or null if the replayed tokens are not rejected
+     */
+    public JtiReplayDetector getReplayDetector() {
+        return replayDetector;
     }
 
-    private void fetchKeys() {
-        try {
-            JSONWebKeySet jwks = HttpUtil.get(keysUri, socketFactory, hostnameVerifier, null, JSONWebKeySet.class);
-            cache = JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG);
-            lastFetchTime = System.currentTimeMillis();
-        } catch (Exception ex) {
-            throw new RuntimeException("Failed to fetch public keys needed to validate JWT signatures: " + keysUri, ex);
+    @Override
+    public void close() {
+        if (log.isDebugEnabled()) {
+            log.debug("Closing JWTSignatureValidator - " + stages + (replayDetector != null ? ", " + replayDetector : ""));
+        }
+        keySource.removeKeysListener(keysListener);
+        validatedTokens.clear();
+        if (ownsKeySource) {
+            keySource.close();
         }
     }
 
-    @SuppressWarnings({"deprecation", "unchecked"})
-    @SuppressFBWarnings(value = "BC_UNCONFIRMED_CAST_OF_RETURN_VALUE",
-            justification = "We tell TokenVerifier to parse AccessToken. It will return AccessToken or fail.")
     public TokenInfo validate(String token) {
-        TokenVerifier<AccessToken> tokenVerifier = TokenVerifier.create(token, AccessToken.class);
+        return validate(token, stages);
+    }
 
-        if (issuerUri != null) {
-            tokenVerifier.realmUrl(issuerUri);
-        }
-        if (checkAccessTokenType) {
-            tokenVerifier.withChecks(TOKEN_TYPE_CHECK);
+    private TokenInfo validate(String token, ValidationStages stages) {
+        ValidatedToken result;
+        if (!validatedTokens.isEnabled()) {
+            result = validateToken(token, stages);
+        } else {
+            String digest = DigestUtil.sha256(token);
+            result = validatedTokens.get(digest, v -> keySource.isKeyCurrent(v.kid, v.verifier));
+            if (result == null) {
+                result = validateToken(token, stages);
+                validatedTokens.put(digest, result, result.tokenInfo.expiresAtMs());
+            }
         }
-        if (audience != null) {
-            tokenVerifier.audience(audience);
+
+        // Also for the tokens from the cache, as presenting the same token again is exactly what is detected
+        if (replayDetector != null) {
+            ValidationFailure failure = replayDetector.check(result.jti, result.tokenInfo.expiresAtMs(), stages);
+            if (failure != null) {
+                throw failure.toException();
+            }
         }
+        return result.tokenInfo;
+    }
 
-        String kid = null;
+    /**
+     * The validation is performed locally, and in most cases only takes a fraction of a millisecond,
+     * so it is performed on the calling thread, rather than handed off to the executor.
+     */
+    @Override
+    public CompletableFuture<TokenInfo> validateAsync(String token, Executor executor) {
+        CompletableFuture<TokenInfo> result = new CompletableFuture<>();
         try {
-            kid = tokenVerifier.getHeader().getKeyId();
-        } catch (Exception e) {
-            throw new TokenValidationException("Token signature validation failed: " + token, e)
-                    .status(Status.INVALID_TOKEN);
+            result.complete(validate(token));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
         }
+        return result;
+    }
 
-        AccessToken t;
+    /**
+     * Validate the tokens with the right header and claims, but an invalid signature, for every key currently available.
+     */
+    @Override
+    public void warmUp(int iterations) {
+        List<String> tokens = new ArrayList<>();
+        for (PublicKeyVerifier v: keySource.getVerifiers().values()) {
+            String token = ValidatorWarmUp.createToken(claimsValidator, v.getKid(), v.getPublicKey());
+            if (token != null) {
+                tokens.add(token);
+            }
+        }
+        // Not counted with the actual validations
+        ValidationStages warmUpStages = new ValidationStages();
+        ValidatorWarmUp.run(iterations, tokens, token -> validate(token, warmUpStages), decoder, claimsValidator);
+    }
 
+    /**
+     * Validate the token in stages ordered by their cost, so that the token is rejected as early as possible.
+     *
+     * The checks return the reason for rejecting the token, which is only turned into an exception here.
+     */
+    private ValidatedToken validateToken(String token, ValidationStages stages) {
+        ValidationStages.Stage stage = ValidationStages.Stage.DECODE;
+        long start = System.nanoTime();
         try {
-            KeyWrapper keywrap = new KeyWrapper();
-            PublicKey pub = getPublicKey(kid);
-            keywrap.setPublicKey(pub);
-            keywrap.setAlgorithm(tokenVerifier.getHeader().getAlgorithm().name());
-            keywrap.setKid(kid);
-
-            log.debug("Signature algorithm used: [" + pub.getAlgorithm() + "]");
-            AsymmetricSignatureVerifierContext ctx = isAlgorithmEC(pub.getAlgorithm()) ?
-                    new ECDSASignatureVerifierContext(keywrap) :
-                    new AsymmetricSignatureVerifierContext(keywrap);
-            tokenVerifier.verifierContext(ctx);
-
-            log.debug("SignatureVerifierContext set to: " + ctx);
-
-            tokenVerifier.verify();
-            t = tokenVerifier.getToken();
+            DecodedToken t = decoder.decode(token);
+            start = stages.passed(stage, start);
 
-        } catch (TokenSignatureInvalidException e) {
-            throw new TokenSignatureException("Signature check failed:", e);
+            stage = ValidationStages.Stage.CLAIMS;
+            ValidationFailure failure = claimsValidator.checkClaims(t);
+            if (failure != null) {
+                throw failure.toException();
+            }
+            start = stages.passed(stage, start);
+
+            stage = ValidationStages.Stage.SIGNATURE;
+            String kid = t.kid();
+            PublicKeyVerifier verifier;
+            if (kid == null) {
+                List<PublicKeyVerifier> candidates = keySource.getVerifiersForAlgorithm(t.algorithm());
+                if (candidates.isEmpty()) {
+                    String algorithm = t.algorithm();
+                    throw ValidationFailure.invalid(() -> "Token validation failed: No valid public key for signing algorithm: " + algorithm)
+                            .retriable().toException();
+                }
+                verifier = findVerifierWithoutKid(t, candidates);
+            } else {
+                verifier = keySource.getVerifier(kid);
+                if (verifier == null) {
+                    throw ValidationFailure.invalid(() -> "Token validation failed: No valid public key for id: " + kid).retriable().toException();
+                }
+                if (!verify(verifier, t)) {
+                    verifier = null;
+                }
+            }
+            if (verifier == null) {
+                throw ValidationFailure.INVALID_SIGNATURE.toException();
+            }
+            start = stages.passed(stage, start);
 
-        } catch (Exception e) {
-            throw new TokenValidationException("Token validation failed:", e);
-        }
+            stage = ValidationStages.Stage.PRINCIPAL;
+            ValidatedToken result = new ValidatedToken(verifier.getKid(), verifier, t.jti(), claimsValidator.createTokenInfo(token, t));
+            stages.passed(stage, start);
+            return result;
 
-        long expiresMillis = t.getExpiration() * 1000L;
-        if (Time.SYSTEM.milliseconds() > expiresMillis) {
-            throw new TokenExpiredException("Token expired at: " + expiresMillis + " (" +
-                    TimeUtil.formatIsoDateTimeUTC(expiresMillis) + ")");
+        } catch (RuntimeException e) {
+            stages.rejected(stage, start);
+            throw e;
         }
+    }
 
-        String principal = null;
-        if (principalExtractor.isConfigured()) {
-            principal = principalExtractor.getPrincipal(JSONUtil.asJson(t));
-        }
-        if (principal == null && !principalExtractor.isConfigured()) {
-            principal = principalExtractor.getSub(t);
-        }
-        if (principal == null) {
-            throw new RuntimeException("Failed to extract principal - check usernameClaim, fallbackUsernameClaim configuration");
+    /**
+     * Find the key that the token without the key id was signed with, among the keys of the type matching the signing algorithm.
+     *
+     * The key that verified the last such token from the same issuer is tried first, so that usually only one signature check is needed.
+     *
+     * @return The verifier for the key, or null if none of the keys verifies the token
+     */
+    private PublicKeyVerifier findVerifierWithoutKid(DecodedToken t, List<PublicKeyVerifier> candidates) {
+        String hintKey = String.valueOf(t.issuer());
+        PublicKeyVerifier hint = lastVerifiersWithoutKid.get(hintKey);
+        PublicKeyVerifier result = null;
+        int tried = 0;
+        try {
+            if (hint != null && candidates.contains(hint)) {
+                tried++;
+                if (verify(hint, t)) {
+                    result = hint;
+                    return result;
+                }
+            }
+            for (PublicKeyVerifier candidate: candidates) {
+                if (candidate == hint) {
+                    continue;
+                }
+                tried++;
+                if (verify(candidate, t)) {
+                    lastVerifiersWithoutKid.put(hintKey, candidate);
+                    result = candidate;
+                    return result;
+                }
+            }
+            return null;
+        } finally {
+            tokensWithoutKidCount.increment();
+            keysTriedWithoutKidCount.add(tried);
+            if (log.isDebugEnabled()) {
+                log.debug("Token without key id " + (result != null ? "verified with key: " + result.getKid() : "not verified by any key")
+                        + " (keys tried: " + tried + " of " + candidates.size() + ")");
+            }
         }
-        return new TokenInfo(t, token, principal);
     }
 
-    private static boolean isAlgorithmEC(String algorithm) {
-        return "EC".equals(algorithm) || "ECDSA".equals(algorithm);
+    private static boolean verify(PublicKeyVerifier verifier, DecodedToken t) {
+        try {
+            return verifier.verify(t.algorithm(), t.signingInput, t.signingInputLength, t.signature, t.signatureLength);
+        } catch (Exception e) {
+            throw new TokenValidationException("Token validation failed:", e).retriable();
+        }
     }
 
+    static class ValidatedToken {
 
-    /**
-     * Use daemon thread for refresh job
-     */
-    static class DaemonThreadFactory implements ThreadFactory {
+        private final String kid;
+        private final PublicKeyVerifier verifier;
+        private final String jti;
+        private final TokenInfo tokenInfo;
 
-        public Thread newThread(Runnable r) {
-            Thread t = Executors.defaultThreadFactory().newThread(r);
-            t.setDaemon(true);
-            return t;
+        ValidatedToken(String kid, PublicKeyVerifier verifier, String jti, TokenInfo tokenInfo) {
+            this.kid = kid;
+            this.verifier = verifier;
+            this.jti = jti;
+            this.tokenInfo = tokenInfo;
         }
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import io.strimzi.kafka.oauth.common.TokenInfo;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+
+import java.util.Map;
+
+/**
+ * TokenInfo that only parses the full <code>AccessToken</code> when the payload is requested,
+ * and otherwise only keeps the claims the validator was configured to retain
+ */
+class JWTTokenInfo extends TokenInfo {
+
+    private volatile AccessToken payload;
+    private final Map<String, String> claims;
+
+    JWTTokenInfo(String token, String scope, String principal, long issuedAtMs, long expiresAtMs, Map<String, String> claims) {
+        super(token, scope, principal, issuedAtMs, expiresAtMs);
+        this.claims = claims;
+    }
+
+    @Override
+    public String claim(String name) {
+        return claims.get(name);
+    }
+
+    @Override
+    public AccessToken payload() {
+        AccessToken result = payload;
+        if (result == null) {
+            try {
+                result = new JWSInput(token()).readJsonContent(AccessToken.class);
+            } catch (JWSInputException e) {
+                throw new RuntimeException("Failed to parse access token", e);
+            }
+            payload = result;
+        }
+        return result;
+    }
+}
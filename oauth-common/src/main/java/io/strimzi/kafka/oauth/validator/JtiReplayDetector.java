@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects the tokens that are presented more than once, by their 'jti' claim, in fixed memory.
+ *
+ * The token ids are kept in Bloom filters, one per time slot of token expiry. A replayed token has the same expiry
+ * as the original, so only one filter is checked per token. The filter for a time slot is cleared and reused
+ * once all the tokens expiring in that slot have expired. Tokens whose expiry is beyond the detection window
+ * can't be tracked. Depending on the configuration, they are either rejected, or accepted without tracking,
+ * the same as the tokens without the 'jti' claim.
+ *
+ * A filter hit is confirmed against a small exact set of the most recent token ids for the slot. If the exact set
+ * hasn't dropped any ids, a miss means a false positive of the filter, and the token is accepted.
+ * Otherwise the token is rejected, so under high load the false positive rate of the filter applies.
+ *
+ * A filter is only ever moved forward to a later slot. A token whose slot has already been taken over by a later one
+ * has expired in the meantime, and is rejected as expired.
+ */
+public class JtiReplayDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(JtiReplayDetector.class);
+
+    private static final int SLOTS = 8;
+
+    private static final int EXACT_IDS_PER_SLOT = 1024;
+
+    // Rough size of an exact set entry - the map entry, and the id string
+    private static final int EXACT_ENTRY_BYTES = 150;
+
+    private final long slotMillis;
+    private final int bitsPerSlot;
+    private final int hashCount;
+    private final int expectedIdsPerSlot;
+    private final boolean rejectBeyondWindow;
+
+    private final Slot[] slots = new Slot[SLOTS];
+
+    private final LongAdder checkCount = new LongAdder();
+    private final LongAdder filterHitCount = new LongAdder();
+    private final LongAdder falsePositiveCount = new LongAdder();
+    private final LongAdder replayCount = new LongAdder();
+    private final LongAdder withoutJtiCount = new LongAdder();
+    private final LongAdder beyondWindowCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final AtomicBoolean beyondWindowLogged = new AtomicBoolean();
+
+    /**
+     * Create a new instance
+     *
+     * @param windowSeconds The maximum remaining lifetime of the tokens that can be tracked
+     * @param expectedIds The expected number of distinct tokens within the window
+     * @param falsePositiveRate The target false positive rate of the filters at the expected number of tokens
+     * @param rejectBeyondWindow If true, the tokens expiring beyond the window are rejected, otherwise they are accepted without tracking
+     */
+    public JtiReplayDetector(int windowSeconds, int expectedIds, double falsePositiveRate, boolean rejectBeyondWindow) {
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException("windowSeconds <= 0");
+        }
+        if (expectedIds <= 0) {
+            throw new IllegalArgumentException("expectedIds <= 0");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate should be between 0 and 1 (is: " + falsePositiveRate + ")");
+        }
+
+        // The tokens expiring within the window fall into the current slot, or one of the next SLOTS - 1 slots
+        this.slotMillis = Math.max(1, (windowSeconds * 1000L + SLOTS - 2) / (SLOTS - 1));
+        this.expectedIdsPerSlot = Math.max(1, expectedIds / (SLOTS - 1));
+        this.rejectBeyondWindow = rejectBeyondWindow;
+
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedIdsPerSlot * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bitsPerSlot = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, (bits + 63) / 64 * 64));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitsPerSlot / expectedIdsPerSlot * ln2));
+
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new Slot(bitsPerSlot);
+        }
+    }
+
+    /**
+     * Record the token id, and reject the token if it was seen before.
+     *
+     * @param jti The value of 'jti' claim, or null if not present - such tokens can't be tracked, and are accepted
+     * @param expiresAtMs The token expiry time
+     * @param stages The metrics to record the check with
+     * @return The reason for rejecting the token if it was presented before, if it has expired, or if its expiry is beyond
+     *         the detection window and such tokens are rejected, or null if the token is accepted
+     */
+    ValidationFailure check(String jti, long expiresAtMs, ValidationStages stages) {
+        long start = System.nanoTime();
+        ValidationFailure result = check(jti, expiresAtMs);
+        if (result == null) {
+            stages.passed(ValidationStages.Stage.REPLAY, start);
+        } else {
+            stages.rejected(ValidationStages.Stage.REPLAY, start);
+        }
+        return result;
+    }
+
+    private ValidationFailure check(String jti, long expiresAtMs) {
+        if (jti == null) {
+            withoutJtiCount.increment();
+            return null;
+        }
+        checkCount.increment();
+
+        long now = System.currentTimeMillis();
+        long slotNumber = expiresAtMs / slotMillis;
+        if (slotNumber >= now / slotMillis + SLOTS) {
+            beyondWindowCount.increment();
+            if (rejectBeyondWindow) {
+                return ValidationFailure.invalid(() -> "Token validation failed: Token expires beyond the replay detection window (jti: " + jti + ")");
+            }
+            if (beyondWindowLogged.compareAndSet(false, true)) {
+                log.warn("Token expires beyond the replay detection window, and is accepted without the replay check (jti: " + jti
+                        + "). Increase the window to cover the lifetime of the tokens. Further such tokens are only logged at DEBUG level.");
+            } else if (log.isDebugEnabled()) {
+                log.debug("Token expires beyond the replay detection window, and is accepted without the replay check (jti: " + jti + ")");
+            }
+            return null;
+        }
+
+        long h1 = hash(jti);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+
+        Slot slot = slots[(int) Math.floorMod(slotNumber, (long) SLOTS)];
+        synchronized (slot) {
+            if (slotNumber < slot.number) {
+                // The filter has already been reused for a later slot, which only happens once all the tokens
+                // in this slot have expired. The token expired while it was being validated, and can't be tracked.
+                expiredCount.increment();
+                return ValidationFailure.expired(() -> "Token expired at: " + expiresAtMs + " (jti: " + jti + ")");
+            }
+            if (slotNumber > slot.number) {
+                // All the tokens in the slot previously using this filter have expired
+                slot.reset(slotNumber);
+            }
+            if (!slot.testAndSet(h1, h2, hashCount, bitsPerSlot)) {
+                slot.exact.put(jti, Boolean.TRUE);
+                return null;
+            }
+            filterHitCount.increment();
+            if (slot.exact.containsKey(jti) || slot.exactDropped) {
+                replayCount.increment();
+                return ValidationFailure.invalid(() -> "Token validation failed: Token has already been used (jti: " + jti + ")");
+            }
+            falsePositiveCount.increment();
+            slot.exact.put(jti, Boolean.TRUE);
+            return null;
+        }
+    }
+
+    private static long hash(String value) {
+        // 64-bit FNV-1a over the chars
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return The number of checked tokens with the 'jti' claim
+     */
+    public long getCheckCount() {
+        return checkCount.sum();
+    }
+
+    /**
+     * @return The number of tokens rejected as replayed
+     */
+    public long getReplayCount() {
+        return replayCount.sum();
+    }
+
+    /**
+     * @return The number of tokens whose id was possibly seen before according to the filter
+     */
+    public long getFilterHitCount() {
+        return filterHitCount.sum();
+    }
+
+    /**
+     * @return The number of filter hits that turned out not to be replays
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.sum();
+    }
+
+    /**
+     * @return The number of tokens without the 'jti' claim, which are not tracked
+     */
+    public long getWithoutJtiCount() {
+        return withoutJtiCount.sum();
+    }
+
+    /**
+     * @return The number of tokens expiring beyond the detection window, which are rejected or not tracked
+     */
+    public long getBeyondWindowCount() {
+        return beyondWindowCount.sum();
+    }
+
+    /**
+     * @return The number of tokens rejected because they expired while being checked
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    /**
+     * @return The fixed memory used by the filters and the exact sets when full, in bytes
+     */
+    public long getMemoryBytes() {
+        return SLOTS * (bitsPerSlot / 8L + (long) EXACT_IDS_PER_SLOT * EXACT_ENTRY_BYTES);
+    }
+
+    /**
+     * Estimate the current false positive rate of the filters, from the share of the bits that are set.
+     *
+     * @return The highest estimated false positive rate of the filters currently in use
+     */
+    public double getFalsePositiveRate() {
+        long currentSlot = System.currentTimeMillis() / slotMillis;
+        double result = 0;
+        for (Slot slot: slots) {
+            synchronized (slot) {
+                if (slot.number >= currentSlot) {
+                    result = Math.max(result, Math.pow((double) slot.bitsSet / bitsPerSlot, hashCount));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "JtiReplayDetector {slots: " + SLOTS + ", slotSeconds: " + slotMillis / 1000
+                + ", bitsPerSlot: " + bitsPerSlot + ", hashCount: " + hashCount + ", expectedIdsPerSlot: " + expectedIdsPerSlot
+                + ", memoryKB: " + getMemoryBytes() / 1024 + ", checks: " + getCheckCount() + ", replays: " + getReplayCount()
+                + ", filterHits: " + getFilterHitCount() + ", falsePositives: " + getFalsePositiveCount() + ", withoutJti: " + getWithoutJtiCount()
+                + ", rejectBeyondWindow: " + rejectBeyondWindow + ", beyondWindow: " + getBeyondWindowCount() + ", expired: " + getExpiredCount()
+                + ", falsePositiveRate: " + String.format(Locale.ROOT, "%.6f", getFalsePositiveRate()) + "}";
+    }
+
+    /**
+     * The filter and the exact set for the tokens expiring within one time slot
+     */
+    static class Slot {
+
+        private final long[] bits;
+        private long number = Long.MIN_VALUE;
+        private int bitsSet;
+        private boolean exactDropped;
+
+        private final Map<String, Boolean> exact = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                if (size() > EXACT_IDS_PER_SLOT) {
+                    exactDropped = true;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Slot(int bitCount) {
+            this.bits = new long[bitCount / 64];
+        }
+
+        void reset(long slotNumber) {
+            Arrays.fill(bits, 0);
+            bitsSet = 0;
+            exact.clear();
+            exactDropped = false;
+            number = slotNumber;
+        }
+
+        /**
+         * Set the bits for the value
+         *
+         * @return true if all the bits were already set
+         */
+        boolean testAndSet(long h1, long h2, int hashCount, int bitCount) {
+            boolean present = true;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) Math.floorMod(h1 + i * h2, (long) bitCount);
+                long mask = 1L << (bit & 63);
+                if ((bits[bit >>> 6] & mask) == 0) {
+                    bits[bit >>> 6] |= mask;
+                    bitsSet++;
+                    present = false;
+                }
+            }
+            return present;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import io.strimzi.kafka.oauth.common.TokenInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A validator that routes every JWT token to the validator configured for the token's issuer.
+ *
+ * The issuer is read from the token's 'iss' claim before the token is validated. It is checked again
+ * by the issuer's validator, which should be configured with the same <code>validIssuerUri</code>.
+ *
+ * Every issuer has its own validator, with its own keys, refresh schedule and metrics.
+ */
+public class MultiIssuerValidator implements TokenValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiIssuerValidator.class);
+
+    private final Map<String, TokenValidator> validators;
+
+    private final AtomicLong unknownIssuerCount = new AtomicLong();
+
+    /**
+     * Create a new validator
+     *
+     * @param validators The validators by the issuer URI as it appears in the 'iss' claim of the token
+     */
+    public MultiIssuerValidator(Map<String, TokenValidator> validators) {
+        if (validators == null || validators.isEmpty()) {
+            throw new IllegalArgumentException("No validators specified");
+        }
+        this.validators = Collections.unmodifiableMap(new HashMap<>(validators));
+
+        if (log.isDebugEnabled()) {
+            log.debug("Configured MultiIssuerValidator:\n    issuers: " + this.validators.keySet());
+        }
+    }
+
+    /**
+     * @return The validators by the issuer URI
+     */
+    public Map<String, TokenValidator> getValidators() {
+        return validators;
+    }
+
+    /**
+     * @return The number of tokens rejected because their issuer is not configured
+     */
+    public long getUnknownIssuerCount() {
+        return unknownIssuerCount.get();
+    }
+
+    @Override
+    public TokenInfo validate(String token) {
+        return route(token).validate(token);
+    }
+
+    @Override
+    public CompletableFuture<TokenInfo> validateAsync(String token, Executor executor) {
+        TokenValidator validator;
+        try {
+            validator = route(token);
+        } catch (RuntimeException e) {
+            CompletableFuture<TokenInfo> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return validator.validateAsync(token, executor);
+    }
+
+    private TokenValidator route(String token) {
+        String issuer = JWTDecoder.readIssuer(token);
+        TokenValidator validator = issuer == null ? null : validators.get(issuer);
+        if (validator == null) {
+            unknownIssuerCount.incrementAndGet();
+            throw ValidationFailure.invalid(() -> "Token validation failed: Unknown token issuer: " + issuer).toException();
+        }
+        return validator;
+    }
+
+    @Override
+    public void warmUp(int iterations) {
+        for (TokenValidator validator: validators.values()) {
+            validator.warmUp(iterations);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (TokenValidator validator: validators.values()) {
+            try {
+                validator.close();
+            } catch (RuntimeException e) {
+                log.warn("[IGNORED] Failed to close the validator: " + validator, e);
+            }
+        }
+    }
+}
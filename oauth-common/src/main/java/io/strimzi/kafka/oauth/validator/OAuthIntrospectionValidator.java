@@ -5,6 +5,8 @@
 package io.strimzi.kafka.oauth.validator;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.strimzi.kafka.oauth.common.DigestUtil;
+import io.strimzi.kafka.oauth.common.ExpiringCache;
 import io.strimzi.kafka.oauth.common.JSONUtil;
 import io.strimzi.kafka.oauth.common.PrincipalExtractor;
 import io.strimzi.kafka.oauth.common.TimeUtil;
@@ -18,6 +20,15 @@ import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import static io.strimzi.kafka.oauth.common.HttpUtil.post;
 import static io.strimzi.kafka.oauth.common.HttpUtil.get;
@@ -40,6 +51,17 @@ public class OAuthIntrospectionValidator implements TokenValidator {
     private final HostnameVerifier hostnameVerifier;
     private final PrincipalExtractor principalExtractor;
 
+    private final ExpiringCache<String, IntrospectedToken> introspectedTokens;
+    private final long cacheTtlMillis;
+    private final long refreshAheadMillis;
+    private final ExecutorService refreshExecutor;
+
+    // The introspections in progress by token digest, shared by the concurrent validations of the same token
+    private final ConcurrentHashMap<String, CompletableFuture<TokenInfo>> introspectionsInFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder introspectionCount = new LongAdder();
+    private final LongAdder refreshAheadCount = new LongAdder();
+
     public OAuthIntrospectionValidator(String introspectionEndpointUri,
                                        SSLSocketFactory socketFactory,
                                        HostnameVerifier verifier,
@@ -51,6 +73,33 @@ public class OAuthIntrospectionValidator implements TokenValidator {
                                        String clientSecret,
                                        String audience) {
 
+        this(introspectionEndpointUri, socketFactory, verifier, principalExtractor, issuerUri, userInfoUri, validTokenType,
+                clientId, clientSecret, audience, 0, 0, 0);
+    }
+
+    /**
+     * Create a validator that optionally caches the successful introspection results.
+     *
+     * @param cacheMaxSize The maximum number of the introspected tokens to keep, or 0 to disable the cache
+     * @param cacheTtlSeconds How long the introspection result is used, unless the token expires sooner
+     * @param refreshAheadSeconds How long before the end of the TTL a cached token is introspected again in the background,
+     *                            when it is used, or 0 to disable
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public OAuthIntrospectionValidator(String introspectionEndpointUri,
+                                       SSLSocketFactory socketFactory,
+                                       HostnameVerifier verifier,
+                                       PrincipalExtractor principalExtractor,
+                                       String issuerUri,
+                                       String userInfoUri,
+                                       String validTokenType,
+                                       String clientId,
+                                       String clientSecret,
+                                       String audience,
+                                       int cacheMaxSize,
+                                       int cacheTtlSeconds,
+                                       int refreshAheadSeconds) {
+
         if (introspectionEndpointUri == null) {
             throw new IllegalArgumentException("introspectionEndpointUri == null");
         }
@@ -97,6 +146,13 @@ public class OAuthIntrospectionValidator implements TokenValidator {
         this.clientSecret = clientSecret;
         this.audience = audience;
 
+        checkCacheConfig(cacheMaxSize, cacheTtlSeconds, refreshAheadSeconds);
+        this.introspectedTokens = new ExpiringCache<>(cacheMaxSize);
+        this.cacheTtlMillis = cacheTtlSeconds * 1000L;
+        this.refreshAheadMillis = refreshAheadSeconds * 1000L;
+        this.refreshExecutor = introspectedTokens.isEnabled() && refreshAheadSeconds > 0 ?
+                Executors.newSingleThreadExecutor(new JWKSKeySource.DaemonThreadFactory()) : null;
+
         if (log.isDebugEnabled()) {
             log.debug("Configured OAuthIntrospectionValidator:\n    introspectionEndpointUri: " + introspectionURI
                     + "\n    sslSocketFactory: " + socketFactory
@@ -106,12 +162,122 @@ public class OAuthIntrospectionValidator implements TokenValidator {
                     + "\n    userInfoUri: " + userInfoURI
                     + "\n    validTokenType: " + validTokenType
                     + "\n    clientId: " + clientId
-                    + "\n    clientSecret: " + mask(clientSecret));
+                    + "\n    clientSecret: " + mask(clientSecret)
+                    + "\n    cacheMaxSize: " + cacheMaxSize
+                    + "\n    cacheTtlSeconds: " + cacheTtlSeconds
+                    + "\n    refreshAheadSeconds: " + refreshAheadSeconds);
         }
     }
 
-    @SuppressWarnings("checkstyle:NPathComplexity")
+    private static void checkCacheConfig(int cacheMaxSize, int cacheTtlSeconds, int refreshAheadSeconds) {
+        if (cacheMaxSize > 0 && cacheTtlSeconds <= 0) {
+            throw new IllegalArgumentException("cacheTtlSeconds has to be greater than 0");
+        }
+        if (refreshAheadSeconds < 0 || refreshAheadSeconds > 0 && refreshAheadSeconds >= cacheTtlSeconds) {
+            throw new IllegalArgumentException("refreshAheadSeconds has to be between 0 and cacheTtlSeconds");
+        }
+    }
+
+    /**
+     * If the cache is enabled, the token introspected successfully within the TTL is not introspected again.
+     * Only the SHA-256 digest of the token is used as the key.
+     */
     public TokenInfo validate(String token) {
+        if (!introspectedTokens.isEnabled()) {
+            return introspect(token);
+        }
+        String digest = DigestUtil.sha256(token);
+        TokenInfo result = getCached(token, digest);
+        return result != null ? result : introspectShared(token, digest);
+    }
+
+    /**
+     * The token found in the cache is validated on the calling thread, without handing it off to the executor.
+     */
+    @Override
+    public CompletableFuture<TokenInfo> validateAsync(String token, Executor executor) {
+        if (introspectedTokens.isEnabled()) {
+            TokenInfo result = getCached(token, DigestUtil.sha256(token));
+            if (result != null) {
+                return CompletableFuture.completedFuture(result);
+            }
+        }
+        return TokenValidator.super.validateAsync(token, executor);
+    }
+
+    private TokenInfo getCached(String token, String digest) {
+        IntrospectedToken cached = introspectedTokens.get(digest);
+        if (cached == null) {
+            return null;
+        }
+        if (refreshExecutor != null && System.currentTimeMillis() >= cached.refreshAt && cached.refreshing.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(() -> refresh(token, digest));
+            } catch (RejectedExecutionException e) {
+                log.debug("Token not introspected ahead - the validator has been closed");
+            }
+        }
+        return cached.tokenInfo;
+    }
+
+    /**
+     * Introspect the token, unless its introspection is already in progress, in which case wait for its result.
+     */
+    private TokenInfo introspectShared(String token, String digest) {
+        CompletableFuture<TokenInfo> introspection = new CompletableFuture<>();
+        CompletableFuture<TokenInfo> inFlight = introspectionsInFlight.putIfAbsent(digest, introspection);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            TokenInfo result = introspect(token);
+            cache(digest, result);
+            introspection.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            introspection.completeExceptionally(e);
+            throw e;
+        } finally {
+            introspectionsInFlight.remove(digest, introspection);
+        }
+    }
+
+    /**
+     * Introspect the cached token again in the background. If the token is no longer active, it is removed from the cache,
+     * so that the next validation fails. If the introspection endpoint is not available, the token is kept until the TTL elapses.
+     */
+    private void refresh(String token, String digest) {
+        refreshAheadCount.increment();
+        try {
+            cache(digest, introspect(token));
+        } catch (TokenValidationException e) {
+            log.debug("Cached token no longer valid: " + e.getMessage());
+            introspectedTokens.remove(digest);
+        } catch (RuntimeException e) {
+            log.warn("Failed to introspect the cached token ahead of its TTL: ", e);
+        }
+    }
+
+    private void cache(String digest, TokenInfo tokenInfo) {
+        long ttlExpiresAt = System.currentTimeMillis() + cacheTtlMillis;
+        if (tokenInfo.expiresAtMs() <= ttlExpiresAt) {
+            // No point introspecting again ahead of the token expiry
+            introspectedTokens.put(digest, new IntrospectedToken(tokenInfo, Long.MAX_VALUE), tokenInfo.expiresAtMs());
+        } else {
+            introspectedTokens.put(digest, new IntrospectedToken(tokenInfo, ttlExpiresAt - refreshAheadMillis), ttlExpiresAt);
+        }
+    }
+
+    @SuppressWarnings("checkstyle:NPathComplexity")
+    private TokenInfo introspect(String token) {
+        introspectionCount.increment();
 
         String authorization = clientSecret != null ?
                 "Basic " + base64encode(clientId + ':' + clientSecret) :
@@ -173,6 +339,37 @@ public class OAuthIntrospectionValidator implements TokenValidator {
         return new TokenInfo(token, scopes, principal, iat, expiresMillis);
     }
 
+    /**
+     * Get the cache of the introspected tokens, which exposes the hit and miss counters.
+     *
+     * @return The introspected token cache
+     */
+    public ExpiringCache<String, ?> getIntrospectedTokenCache() {
+        return introspectedTokens;
+    }
+
+    /**
+     * @return The number of requests to the introspection endpoint
+     */
+    public long getIntrospectionCount() {
+        return introspectionCount.sum();
+    }
+
+    /**
+     * @return The number of cached tokens introspected again in the background, ahead of their TTL
+     */
+    public long getRefreshAheadCount() {
+        return refreshAheadCount.sum();
+    }
+
+    @Override
+    public void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        introspectedTokens.clear();
+    }
+
     String getPrincipalFromUserInfoEndpoint(String token) {
         String authorization = "Bearer " + token;
         JsonNode response;
@@ -216,4 +413,16 @@ public class OAuthIntrospectionValidator implements TokenValidator {
             }
         }
     }
+
+    static class IntrospectedToken {
+
+        private final TokenInfo tokenInfo;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        IntrospectedToken(TokenInfo tokenInfo, long refreshAt) {
+            this.tokenInfo = tokenInfo;
+            this.refreshAt = refreshAt;
+        }
+    }
 }
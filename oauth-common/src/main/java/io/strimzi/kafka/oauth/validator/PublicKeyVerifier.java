@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.keycloak.common.VerificationException;
+import org.keycloak.crypto.JavaAlgorithm;
+import org.keycloak.crypto.SignatureVerifierContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A signature verifier bound to a single public key from the JWKS endpoint.
+ *
+ * It hands out one {@link SignatureVerifierContext} per signing algorithm. Each context keeps a thread-confined JCA
+ * {@link Signature} instance that is looked up and initialised with the public key only once per thread,
+ * rather than once per token.
+ *
+ * Instances are created when the keys are fetched, and are only replaced when the key for the same key id changes.
+ */
+public class PublicKeyVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(PublicKeyVerifier.class);
+
+    private final String kid;
+    private final PublicKey publicKey;
+    private final boolean isEC;
+    private final SignatureProviders providers;
+
+    private final ConcurrentHashMap<String, ThreadLocalSignatureVerifierContext> contexts = new ConcurrentHashMap<>();
+
+    public PublicKeyVerifier(String kid, PublicKey publicKey) {
+        this(kid, publicKey, SignatureProviders.DEFAULT);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param kid The key id
+     * @param publicKey The public key
+     * @param providers The choice of the security providers to use for the signing algorithms
+     */
+    public PublicKeyVerifier(String kid, PublicKey publicKey, SignatureProviders providers) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("publicKey == null");
+        }
+        this.kid = kid;
+        this.publicKey = publicKey;
+        this.isEC = isAlgorithmEC(publicKey.getAlgorithm());
+        this.providers = providers;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Get the verifier context for the JWS signing algorithm as specified in the token header (e.g. 'RS256')
+     *
+     * @param algorithm JWS signing algorithm
+     * @return The verifier context bound to this key
+     */
+    public SignatureVerifierContext getContext(String algorithm) {
+        return getThreadLocalContext(algorithm);
+    }
+
+    private ThreadLocalSignatureVerifierContext getThreadLocalContext(String algorithm) {
+        ThreadLocalSignatureVerifierContext ctx = contexts.get(algorithm);
+        if (ctx == null) {
+            // Fails for unknown algorithms, so the number of contexts stays bounded
+            JavaAlgorithm.getJavaAlgorithm(algorithm);
+            ctx = contexts.computeIfAbsent(algorithm, ThreadLocalSignatureVerifierContext::new);
+        } else if (ctx.provisional && !providers.isPending(algorithm)) {
+            // The provider calibration has completed since the context was created
+            ThreadLocalSignatureVerifierContext calibrated = new ThreadLocalSignatureVerifierContext(algorithm);
+            ctx = contexts.replace(algorithm, ctx, calibrated) ? calibrated : contexts.get(algorithm);
+        }
+        return ctx;
+    }
+
+    /**
+     * Verify the signature without copying the data or the signature into separate arrays.
+     *
+     * @param algorithm JWS signing algorithm
+     * @param data The buffer containing the signed data
+     * @param dataLen The length of signed data at the start of the buffer
+     * @param signature The buffer containing the signature
+     * @param signatureLen The length of signature at the start of the buffer
+     * @return true if the signature is valid
+     * @throws VerificationException if the verification could not be performed
+     */
+    public boolean verify(String algorithm, byte[] data, int dataLen, byte[] signature, int signatureLen) throws VerificationException {
+        if (algorithm == null) {
+            throw new VerificationException("Signing algorithm not specified");
+        }
+        ThreadLocalSignatureVerifierContext ctx;
+        try {
+            ctx = getThreadLocalContext(algorithm);
+        } catch (IllegalArgumentException e) {
+            throw new VerificationException("Unsupported signing algorithm: " + algorithm + " (kid: " + kid + ")", e);
+        }
+        return ctx.verify(data, dataLen, signature, signatureLen);
+    }
+
+    /**
+     * Check if the other key can be used in place of this verifier's key.
+     *
+     * @param otherKey Public key
+     * @return true if the key is equal to this verifier's key
+     */
+    public boolean hasKey(PublicKey otherKey) {
+        return publicKey.equals(otherKey);
+    }
+
+    private static boolean isAlgorithmEC(String algorithm) {
+        return "EC".equals(algorithm) || "ECDSA".equals(algorithm);
+    }
+
+    @Override
+    public String toString() {
+        return "PublicKeyVerifier {kid: " + kid + ", keyAlgorithm: " + publicKey.getAlgorithm() + "}";
+    }
+
+    class ThreadLocalSignatureVerifierContext implements SignatureVerifierContext {
+
+        private final String algorithm;
+        private final ECDSASignatureVerifierContext.ECDSA ecdsa;
+
+        // true if created with the default JCA provider while the provider calibration is still in progress
+        private final boolean provisional;
+
+        // For ECDSA, the name of the JCA algorithm that takes the concatenated R and S values (as used by JWS) directly,
+        // or null if not supported by the installed providers for the key
+        private final String p1363Algorithm;
+
+        private final ThreadLocal<Signature> signature;
+
+        // For ECDSA, the instance for signatures encoded as ASN.1 DER, used if P1363 format is not supported,
+        // or if the token signature itself is DER encoded
+        private final ThreadLocal<Signature> derSignature;
+        private final ThreadLocal<byte[]> derBuffer;
+
+        ThreadLocalSignatureVerifierContext(String algorithm) {
+            this.algorithm = algorithm;
+            String javaAlgorithm = JavaAlgorithm.getJavaAlgorithm(algorithm);
+            this.ecdsa = isEC ? ECDSASignatureVerifierContext.ECDSA.valueOf(algorithm) : null;
+
+            this.provisional = providers.isPending(algorithm);
+            SignatureProviders.Selection selection = getProviderSelection();
+            if (selection != null) {
+                PublicKey key = SignatureProviders.translateKey(publicKey, selection.provider);
+                this.p1363Algorithm = selection.p1363 ? selection.javaAlgorithm : null;
+                this.signature = ThreadLocal.withInitial(() -> createSignature(selection.javaAlgorithm, selection.provider, key));
+            } else {
+                this.p1363Algorithm = ecdsa != null ? findP1363Algorithm(javaAlgorithm) : null;
+                this.signature = ThreadLocal.withInitial(() -> createSignature(p1363Algorithm != null ? p1363Algorithm : javaAlgorithm, null, publicKey));
+            }
+            this.derSignature = p1363Algorithm != null ? ThreadLocal.withInitial(() -> createSignature(javaAlgorithm, null, publicKey)) : signature;
+            this.derBuffer = ecdsa != null ? ThreadLocal.withInitial(() -> new byte[ECDSASignatureVerifierContext.maxDERLength(ecdsa.getSignatureLength())]) : null;
+        }
+
+        /**
+         * Find the algorithm that takes the signature in IEEE P1363 format, and accepts this verifier's key.
+         * The JDK and BouncyCastle use different names for it, and SunEC doesn't accept the keys created by BouncyCastle.
+         */
+        private String findP1363Algorithm(String javaAlgorithm) {
+            String[] candidates = {javaAlgorithm + "inP1363Format", javaAlgorithm.replace("withECDSA", "withPLAIN-ECDSA")};
+            for (String name: candidates) {
+                try {
+                    Signature s = Signature.getInstance(name);
+                    s.initVerify(publicKey);
+                    return name;
+                } catch (GeneralSecurityException | RuntimeException e) {
+                    log.debug("[IGNORED] Signature algorithm " + name + " not available for key: " + kid + " (" + e + ")");
+                }
+            }
+            log.debug("No P1363 signature algorithm available for " + algorithm + " - ECDSA signatures will be converted to ASN.1 DER (kid: " + kid + ")");
+            return null;
+        }
+
+        /**
+         * Get the provider chosen for the algorithm by {@link SignatureProviders}, if it accepts this verifier's key
+         */
+        private SignatureProviders.Selection getProviderSelection() {
+            SignatureProviders.Selection selection = providers.get(algorithm);
+            if (selection == null) {
+                return null;
+            }
+            try {
+                createSignature(selection.javaAlgorithm, selection.provider, SignatureProviders.translateKey(publicKey, selection.provider));
+                return selection;
+            } catch (RuntimeException e) {
+                log.warn("[IGNORED] Selected security provider " + selection + " can't be used for algorithm: " + algorithm + " (kid: " + kid + ")", e);
+                return null;
+            }
+        }
+
+        private Signature createSignature(String javaAlgorithm, Provider provider, PublicKey key) {
+            try {
+                Signature s = provider != null ? Signature.getInstance(javaAlgorithm, provider) : Signature.getInstance(javaAlgorithm);
+                s.initVerify(key);
+                return s;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Failed to initialise signature verifier for algorithm: " + algorithm + " (kid: " + kid + ")", e);
+            }
+        }
+
+        @Override
+        public String getKid() {
+            return kid;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public boolean verify(byte[] data, byte[] sig) throws VerificationException {
+            return verify(data, data.length, sig, sig.length);
+        }
+
+        boolean verify(byte[] data, int dataLen, byte[] sig, int sigLen) throws VerificationException {
+            ThreadLocal<Signature> instance = signature;
+            try {
+                if (ecdsa != null) {
+                    int expectedSize = ecdsa.getSignatureLength();
+                    if (expectedSize != sigLen && sigLen > 0 && sig[0] == 0x30) {
+                        // Already DER encoded (issued by older Keycloak versions)
+                        instance = derSignature;
+                    } else if (p1363Algorithm == null) {
+                        if (sigLen != expectedSize) {
+                            throw new IllegalArgumentException("Invalid ECDSA signature length: " + sigLen);
+                        }
+                        byte[] der = derBuffer.get();
+                        sigLen = ECDSASignatureVerifierContext.concatenatedRSToASN1DER(sig, expectedSize, der);
+                        sig = der;
+                    }
+                }
+                Signature s = instance.get();
+                s.update(data, 0, dataLen);
+
+                // verify() resets the instance to the state after initVerify() so it can be reused
+                return s.verify(sig, 0, sigLen);
+            } catch (Exception e) {
+                // Don't reuse the instance that may be in an inconsistent state
+                instance.remove();
+                throw new VerificationException("Signing failed", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ThreadLocalSignatureVerifierContext {kid: " + kid + ", algorithm: " + algorithm + "}";
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.keycloak.crypto.JavaAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The choice of the JCA provider used to verify the signatures with each JWS signing algorithm.
+ *
+ * By default, the JCA picks the first installed provider that supports the algorithm and accepts the key,
+ * which is not necessarily the fastest one - e.g. BouncyCastle may be much faster for ECDSA than SunEC,
+ * while SunRsaSign is faster for RSA.
+ *
+ * If calibration is enabled, every signing algorithm is measured when it is first needed, with a generated key,
+ * with every installed provider that supports it, and the fastest provider is used. The calibration runs once
+ * per JVM and algorithm, in the background, as it measures the installed providers, which are shared by the
+ * whole JVM. The validations performed in the meantime use the default JCA choice.
+ * Alternatively, the provider can be pinned for the algorithm explicitly.
+ *
+ * Each key source has its own instance, so the listeners can pin different providers.
+ */
+public class SignatureProviders {
+
+    private static final Logger log = LoggerFactory.getLogger(SignatureProviders.class);
+
+    /**
+     * Always leaves the choice to the JCA
+     */
+    public static final SignatureProviders DEFAULT = new SignatureProviders(false, null);
+
+    private static final int CALIBRATION_WARMUP_ITERATIONS = 100;
+    private static final int CALIBRATION_ITERATIONS = 100;
+
+    // A typical size of the signing input of an access token
+    private static final byte[] CALIBRATION_DATA = new byte[800];
+
+    // The calibration results, which only depend on the installed providers
+    private static final ConcurrentHashMap<String, CompletableFuture<Selection>> CALIBRATIONS = new ConcurrentHashMap<>();
+
+    private final boolean calibrate;
+    private final Map<String, String> overrides;
+
+    private final ConcurrentHashMap<String, Selection> overrideSelections = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new instance
+     *
+     * @param calibrate If true, the fastest provider is found for every signing algorithm as it is first used
+     * @param providers The comma separated list of JWS signing algorithm and provider name pairs,
+     *                  e.g. "RS256:SunRsaSign,ES256:BC", that take precedence over calibration (may be null)
+     */
+    public SignatureProviders(boolean calibrate, String providers) {
+        this.calibrate = calibrate;
+        this.overrides = parseProviders(providers);
+    }
+
+    /**
+     * Get the instance for the settings
+     *
+     * @param calibrate If true, the fastest provider is found for every signing algorithm as it is first used
+     * @param providers The comma separated list of JWS signing algorithm and provider name pairs (may be null)
+     * @return A new instance, or {@link #DEFAULT} if neither calibration, nor any providers are configured
+     */
+    public static SignatureProviders of(boolean calibrate, String providers) {
+        return calibrate || providers != null ? new SignatureProviders(calibrate, providers) : DEFAULT;
+    }
+
+    private static Map<String, String> parseProviders(String providers) {
+        if (providers == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new HashMap<>();
+        for (String entry: providers.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int pos = entry.indexOf(':');
+            if (pos <= 0 || pos == entry.length() - 1) {
+                throw new IllegalArgumentException("Invalid signature provider setting (should be ALGORITHM:PROVIDER): " + entry);
+            }
+            result.put(entry.substring(0, pos).trim().toUpperCase(Locale.ROOT), entry.substring(pos + 1).trim());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Get the provider to use for the algorithm.
+     *
+     * If the calibration for the algorithm hasn't been performed yet, it is started in the background, and null
+     * is returned until it completes.
+     *
+     * @param algorithm JWS signing algorithm
+     * @return The selection or null if the default JCA provider selection should be used
+     */
+    Selection get(String algorithm) {
+        if (overrides.containsKey(algorithm)) {
+            // Not cached if it fails, so that the failure is logged for every verifier
+            return overrideSelections.computeIfAbsent(algorithm, this::selectOverride);
+        }
+        if (!calibrate) {
+            return null;
+        }
+        return CALIBRATIONS.computeIfAbsent(algorithm, SignatureProviders::startCalibration).getNow(null);
+    }
+
+    /**
+     * @param algorithm JWS signing algorithm
+     * @return true if the provider for the algorithm may still change, once the calibration completes
+     */
+    boolean isPending(String algorithm) {
+        if (!calibrate || overrides.containsKey(algorithm)) {
+            return false;
+        }
+        CompletableFuture<Selection> calibration = CALIBRATIONS.get(algorithm);
+        return calibration == null || !calibration.isDone();
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureProviders {calibrate: " + calibrate + ", providers: " + overrides + "}";
+    }
+
+    /**
+     * @param key Public key
+     * @return The JWS signing algorithm most commonly used with the key, or null if not RSA or EC key
+     */
+    static String defaultAlgorithm(PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            return "RS256";
+        }
+        if (key instanceof ECPublicKey) {
+            int fieldSize = ((ECPublicKey) key).getParams().getCurve().getField().getFieldSize();
+            return fieldSize <= 256 ? "ES256" : fieldSize <= 384 ? "ES384" : "ES512";
+        }
+        return null;
+    }
+
+    /**
+     * Convert the key into the representation of the provider, so that the provider accepts it.
+     *
+     * @param key The public key
+     * @param provider The provider
+     * @return The converted key, or the same key if the provider has no key factory for it
+     */
+    static PublicKey translateKey(PublicKey key, Provider provider) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm(key.getAlgorithm()), provider).generatePublic(new X509EncodedKeySpec(key.getEncoded()));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return key;
+        }
+    }
+
+    private static PrivateKey translateKey(PrivateKey key, Provider provider) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm(key.getAlgorithm()), provider).generatePrivate(new PKCS8EncodedKeySpec(key.getEncoded()));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return key;
+        }
+    }
+
+    private static String keyAlgorithm(String algorithm) {
+        return "ECDSA".equals(algorithm) ? "EC" : algorithm;
+    }
+
+    private static boolean isEC(String algorithm) {
+        return algorithm.startsWith("ES");
+    }
+
+    /**
+     * @return The names of the JCA algorithm, in the order of preference - for ECDSA the variants that take
+     * the signature in the IEEE P1363 format used by JWS come first
+     */
+    private static String[] javaAlgorithms(String algorithm) {
+        String javaAlgorithm = JavaAlgorithm.getJavaAlgorithm(algorithm);
+        if (isEC(algorithm)) {
+            return new String[] {javaAlgorithm + "inP1363Format", javaAlgorithm.replace("withECDSA", "withPLAIN-ECDSA"), javaAlgorithm};
+        }
+        return new String[] {javaAlgorithm};
+    }
+
+    private Selection selectOverride(String algorithm) {
+        try {
+            return forOverride(algorithm, overrides.get(algorithm));
+        } catch (RuntimeException e) {
+            log.warn("[IGNORED] Failed to select the signature provider for algorithm: " + algorithm, e);
+            return null;
+        }
+    }
+
+    private static Selection forOverride(String algorithm, String providerName) {
+        Provider provider = Security.getProvider(providerName);
+        if (provider == null) {
+            throw new IllegalArgumentException("Security provider not installed: " + providerName);
+        }
+        for (String javaAlgorithm: javaAlgorithms(algorithm)) {
+            if (provider.getService("Signature", javaAlgorithm) != null) {
+                Selection selection = new Selection(provider, javaAlgorithm, isEC(algorithm) && !javaAlgorithm.equals(JavaAlgorithm.getJavaAlgorithm(algorithm)));
+                log.info("Using configured security provider for signing algorithm " + algorithm + ": " + selection);
+                return selection;
+            }
+        }
+        throw new IllegalArgumentException("Security provider " + providerName + " doesn't support signing algorithm: " + algorithm);
+    }
+
+    private static CompletableFuture<Selection> startCalibration(String algorithm) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return calibrate(algorithm);
+            } catch (RuntimeException e) {
+                log.warn("[IGNORED] Failed to select the signature provider for algorithm: " + algorithm, e);
+                return null;
+            }
+        }, CalibrationExecutor.INSTANCE);
+    }
+
+    private static Selection calibrate(String algorithm) {
+        KeyPair keyPair = generateKeyPair(algorithm);
+        if (keyPair == null) {
+            return null;
+        }
+
+        Selection best = null;
+        long bestNanos = Long.MAX_VALUE;
+        StringBuilder results = new StringBuilder();
+        for (Provider provider: Security.getProviders()) {
+            for (String javaAlgorithm: javaAlgorithms(algorithm)) {
+                if (provider.getService("Signature", javaAlgorithm) == null) {
+                    continue;
+                }
+                long nanos = measure(provider, javaAlgorithm, keyPair);
+                if (nanos < 0) {
+                    continue;
+                }
+                results.append("\n    ").append(provider.getName()).append(" ").append(javaAlgorithm).append(": ")
+                        .append(nanos / 1000).append(" us/op");
+                // Only move away from the earlier (higher priority) candidate if noticeably faster
+                if (best == null || nanos * 10 < bestNanos * 9) {
+                    bestNanos = nanos;
+                    best = new Selection(provider, javaAlgorithm, isEC(algorithm) && !javaAlgorithm.equals(JavaAlgorithm.getJavaAlgorithm(algorithm)));
+                }
+            }
+        }
+        if (best != null) {
+            log.info("Selected security provider for signing algorithm " + algorithm + ": " + best + " (" + bestNanos / 1000 + " us/op)");
+            if (log.isDebugEnabled()) {
+                log.debug("Signature verification calibration results for " + algorithm + ":" + results);
+            }
+        }
+        return best;
+    }
+
+    private static KeyPair generateKeyPair(String algorithm) {
+        try {
+            if (algorithm.startsWith("RS") || algorithm.startsWith("PS")) {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(2048);
+                return generator.generateKeyPair();
+            }
+            if (isEC(algorithm)) {
+                String curve = "ES256".equals(algorithm) ? "secp256r1" : "ES384".equals(algorithm) ? "secp384r1" : "secp521r1";
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec(curve));
+                return generator.generateKeyPair();
+            }
+        } catch (GeneralSecurityException e) {
+            log.warn("[IGNORED] Failed to generate the key pair for calibration of signing algorithm: " + algorithm, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return The average verification time in nanoseconds, or -1 if the provider can't be used
+     */
+    private static long measure(Provider provider, String javaAlgorithm, KeyPair keyPair) {
+        try {
+            Signature signer = Signature.getInstance(javaAlgorithm, provider);
+            signer.initSign(translateKey(keyPair.getPrivate(), provider));
+            signer.update(CALIBRATION_DATA);
+            byte[] signature = signer.sign();
+
+            Signature verifier = Signature.getInstance(javaAlgorithm, provider);
+            verifier.initVerify(translateKey(keyPair.getPublic(), provider));
+            for (int i = 0; i < CALIBRATION_WARMUP_ITERATIONS; i++) {
+                verifier.update(CALIBRATION_DATA);
+                if (!verifier.verify(signature)) {
+                    return -1;
+                }
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < CALIBRATION_ITERATIONS; i++) {
+                verifier.update(CALIBRATION_DATA);
+                verifier.verify(signature);
+            }
+            return (System.nanoTime() - start) / CALIBRATION_ITERATIONS;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.debug("[IGNORED] Security provider " + provider.getName() + " can't be used for " + javaAlgorithm, e);
+            return -1;
+        }
+    }
+
+    /**
+     * The single daemon thread performing the calibrations, created on first use
+     */
+    private static class CalibrationExecutor {
+        static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new JWKSKeySource.DaemonThreadFactory());
+    }
+
+    /**
+     * The provider and the name of the JCA algorithm to use for the JWS signing algorithm
+     */
+    static class Selection {
+
+        final Provider provider;
+        final String javaAlgorithm;
+
+        // true if the signature instance takes the concatenated ECDSA R and S values rather than ASN.1 DER
+        final boolean p1363;
+
+        Selection(Provider provider, String javaAlgorithm, boolean p1363) {
+            this.provider = provider;
+            this.javaAlgorithm = javaAlgorithm;
+            this.p1363 = p1363;
+        }
+
+        @Override
+        public String toString() {
+            return provider.getName() + " (" + javaAlgorithm + ")";
+        }
+    }
+}
@@ -29,4 +29,8 @@ public class TokenExpiredException extends TokenValidationException {
     protected TokenExpiredException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
     }
+
+    TokenExpiredException(ValidationFailure failure, Throwable cause) {
+        super(failure, cause);
+    }
 }
@@ -29,4 +29,8 @@ public class TokenSignatureException extends TokenValidationException {
     protected TokenSignatureException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
     }
+
+    TokenSignatureException(ValidationFailure failure, Throwable cause) {
+        super(failure, cause);
+    }
 }
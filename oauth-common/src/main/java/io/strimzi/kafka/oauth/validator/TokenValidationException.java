@@ -10,6 +10,11 @@ public class TokenValidationException extends RuntimeException {
 
     private String status;
 
+    private boolean retriable;
+
+    private ValidationFailure failure;
+    private String failureMessage;
+
     {
         status(Status.INVALID_TOKEN);
     }
@@ -34,6 +39,27 @@ public class TokenValidationException extends RuntimeException {
         super(message, cause, enableSuppression, writableStackTrace);
     }
 
+    /**
+     * The exception reporting the failure returned by the checks, without the stack trace,
+     * and with the message built only when requested
+     */
+    TokenValidationException(ValidationFailure failure, Throwable cause) {
+        super(null, cause, false, false);
+        this.failure = failure;
+        this.retriable = failure.isRetriable();
+    }
+
+    @Override
+    public String getMessage() {
+        if (failure == null) {
+            return super.getMessage();
+        }
+        if (failureMessage == null) {
+            failureMessage = failure.message();
+        }
+        return failureMessage;
+    }
+
 
     TokenValidationException status(Status status) {
         this.status = status.value();
@@ -44,6 +70,18 @@ public class TokenValidationException extends RuntimeException {
         return status;
     }
 
+    TokenValidationException retriable() {
+        this.retriable = true;
+        return this;
+    }
+
+    /**
+     * @return true if the same token may pass the validation later, e.g. once the keys are refreshed
+     */
+    public boolean isRetriable() {
+        return retriable;
+    }
+
 
     public enum Status {
         INVALID_TOKEN,
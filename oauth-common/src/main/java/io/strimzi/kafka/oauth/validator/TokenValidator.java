@@ -6,7 +6,68 @@ package io.strimzi.kafka.oauth.validator;
 
 import io.strimzi.kafka.oauth.common.TokenInfo;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 public interface TokenValidator {
 
     TokenInfo validate(String token);
+
+    /**
+     * Validate the token asynchronously.
+     *
+     * By default, the blocking {@link #validate(String)} is performed using the passed executor.
+     * If the executor rejects the task, the returned future is completed exceptionally.
+     *
+     * @param token The token
+     * @param executor The executor to perform the validation with
+     * @return The future completed with the result of validation
+     */
+    default CompletableFuture<TokenInfo> validateAsync(String token, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(() -> validate(token), executor);
+        } catch (RuntimeException e) {
+            CompletableFuture<TokenInfo> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    /**
+     * Validate many tokens at once, e.g. during a connection storm after the broker restart.
+     *
+     * Identical tokens are only validated once. The distinct tokens are validated in parallel using
+     * a fork-join pool sized to the number of available processors.
+     *
+     * The returned map contains one already completed future per distinct token, in the order of the first occurrence.
+     * A future for the token that failed validation is completed exceptionally.
+     *
+     * @param tokens The tokens to validate
+     * @return The map of distinct tokens to the results of their validation
+     */
+    default Map<String, CompletableFuture<TokenInfo>> validateAll(Collection<String> tokens) {
+        return BatchValidation.validateAll(this, tokens);
+    }
+
+    /**
+     * Exercise the validation code paths with synthetic tokens, so that the first real tokens after startup
+     * don't pay for the class loading, the security provider lookups, and the JIT compilation.
+     *
+     * The synthetic tokens never pass the validation. Implementations must not perform any network calls.
+     * The warm-up is usually run on a separate thread, so it can't prepare any state kept per thread, e.g. the
+     * signature instances, which the validating threads create for themselves on first use.
+     * The default implementation does nothing.
+     *
+     * @param iterations The number of times each synthetic token is validated
+     */
+    default void warmUp(int iterations) {
+    }
+
+    /**
+     * Release any resources held by the validator
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import java.util.function.Supplier;
+
+/**
+ * The reason why the token was rejected, returned by the checks instead of throwing an exception.
+ *
+ * The message is only built when it is needed, e.g. when it is logged. Where the failure has to be reported through
+ * the validator API, it is turned into {@link TokenValidationException}, or its subclass, without a stack trace,
+ * as the stack trace of the expected validation failure only costs time, and is of no use.
+ */
+public final class ValidationFailure {
+
+    private enum Kind {
+        INVALID,
+        EXPIRED,
+        SIGNATURE
+    }
+
+    static final ValidationFailure INVALID_SIGNATURE = signature(() -> "Signature check failed: Invalid token signature");
+
+    private final Kind kind;
+    private final Supplier<String> message;
+    private final boolean retriable;
+
+    private ValidationFailure(Kind kind, Supplier<String> message, boolean retriable) {
+        this.kind = kind;
+        this.message = message;
+        this.retriable = retriable;
+    }
+
+    /**
+     * @param message Builds the message when needed
+     * @return The failure reported as {@link TokenValidationException}
+     */
+    public static ValidationFailure invalid(Supplier<String> message) {
+        return new ValidationFailure(Kind.INVALID, message, false);
+    }
+
+    /**
+     * @param message Builds the message when needed
+     * @return The failure reported as {@link TokenExpiredException}
+     */
+    public static ValidationFailure expired(Supplier<String> message) {
+        return new ValidationFailure(Kind.EXPIRED, message, false);
+    }
+
+    /**
+     * @param message Builds the message when needed
+     * @return The failure reported as {@link TokenSignatureException}
+     */
+    public static ValidationFailure signature(Supplier<String> message) {
+        return new ValidationFailure(Kind.SIGNATURE, message, false);
+    }
+
+    /**
+     * @return The same failure, for which the same token may pass the validation later, e.g. once the keys are refreshed
+     */
+    ValidationFailure retriable() {
+        return new ValidationFailure(kind, message, true);
+    }
+
+    /**
+     * @return The status reported to the client
+     */
+    public String status() {
+        return (kind == Kind.EXPIRED ? TokenValidationException.Status.EXPIRED_TOKEN : TokenValidationException.Status.INVALID_TOKEN).value();
+    }
+
+    /**
+     * @return The message, built on every call
+     */
+    public String message() {
+        return message.get();
+    }
+
+    /**
+     * @return true if the same token may pass the validation later
+     */
+    public boolean isRetriable() {
+        return retriable;
+    }
+
+    /**
+     * @return The exception, without the stack trace, to report the failure through the validator API
+     */
+    public TokenValidationException toException() {
+        return toException(null);
+    }
+
+    /**
+     * @param cause The cause of the failure
+     * @return The exception, without the stack trace, to report the failure through the validator API
+     */
+    public TokenValidationException toException(Throwable cause) {
+        switch (kind) {
+            case EXPIRED:
+                return new TokenExpiredException(this, cause);
+            case SIGNATURE:
+                return new TokenSignatureException(this, cause);
+            default:
+                return new TokenValidationException(this, cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationFailure {status: " + status() + ", retriable: " + retriable + ", message: " + message() + "}";
+    }
+}
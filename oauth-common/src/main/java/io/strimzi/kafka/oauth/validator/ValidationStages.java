@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and the time spent in each stage of the local token validation.
+ *
+ * The stages run in the order of their cost, so that the tokens that are malformed, expired, or issued for someone else
+ * are rejected before the signature check. The counters show in which stage the tokens are rejected.
+ */
+public class ValidationStages {
+
+    public enum Stage {
+        /**
+         * Decoding of the token, and the checks of its structure
+         */
+        DECODE,
+        /**
+         * The checks of the token header and claims
+         */
+        CLAIMS,
+        /**
+         * The key lookup and the signature check
+         */
+        SIGNATURE,
+        /**
+         * The principal extraction
+         */
+        PRINCIPAL,
+        /**
+         * The replay detection by 'jti' claim, which is also performed for the tokens from the validated token cache
+         */
+        REPLAY
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LongAdder[] passed = adders();
+    private final LongAdder[] rejected = adders();
+    private final LongAdder[] nanos = adders();
+
+    private static LongAdder[] adders() {
+        LongAdder[] result = new LongAdder[STAGES.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    /**
+     * Record the stage as passed.
+     *
+     * @param stage The stage
+     * @param start The value of <code>System.nanoTime()</code> when the stage started
+     * @return The start time of the next stage
+     */
+    long passed(Stage stage, long start) {
+        long now = System.nanoTime();
+        passed[stage.ordinal()].increment();
+        nanos[stage.ordinal()].add(now - start);
+        return now;
+    }
+
+    /**
+     * Record the token as rejected in the stage.
+     *
+     * @param stage The stage
+     * @param start The value of <code>System.nanoTime()</code> when the stage started
+     */
+    void rejected(Stage stage, long start) {
+        rejected[stage.ordinal()].increment();
+        nanos[stage.ordinal()].add(System.nanoTime() - start);
+    }
+
+    /**
+     * @param stage The stage
+     * @return The number of tokens that passed the stage
+     */
+    public long getPassedCount(Stage stage) {
+        return passed[stage.ordinal()].sum();
+    }
+
+    /**
+     * @param stage The stage
+     * @return The number of tokens rejected in the stage
+     */
+    public long getRejectedCount(Stage stage) {
+        return rejected[stage.ordinal()].sum();
+    }
+
+    /**
+     * @param stage The stage
+     * @return The total time spent in the stage in nanoseconds, by the passed and the rejected tokens
+     */
+    public long getTotalNanos(Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ValidationStages {");
+        for (Stage stage: STAGES) {
+            long count = getPassedCount(stage) + getRejectedCount(stage);
+            if (stage.ordinal() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage.name().toLowerCase(Locale.ROOT))
+                    .append(": {passed: ").append(getPassedCount(stage))
+                    .append(", rejected: ").append(getRejectedCount(stage))
+                    .append(", avgMicros: ").append(count == 0 ? 0 : getTotalNanos(stage) / count / 1000)
+                    .append("}");
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Helpers for {@link TokenValidator#warmUp(int)} implementations of the validators that check the signature locally.
+ *
+ * The synthetic tokens have the header and the claims that pass all the checks, but a signature made of arbitrary bytes,
+ * so they can never be used to authenticate.
+ */
+class ValidatorWarmUp {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private ValidatorWarmUp() {
+    }
+
+    /**
+     * Create the synthetic token for the public key.
+     *
+     * @return The token, or null if the type of key is not supported
+     */
+    static String createToken(JWTClaimsValidator claimsValidator, String kid, PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            int length = (((RSAPublicKey) key).getModulus().bitLength() + 7) / 8;
+            return createToken(claimsValidator, "RS256", kid, length);
+        }
+        if (key instanceof ECPublicKey) {
+            int fieldSize = ((ECPublicKey) key).getParams().getCurve().getField().getFieldSize();
+            return createToken(claimsValidator, SignatureProviders.defaultAlgorithm(key), kid, 2 * ((fieldSize + 7) / 8));
+        }
+        return null;
+    }
+
+    static String createToken(JWTClaimsValidator claimsValidator, String alg, String kid, int signatureLength) {
+        String header = "{\"alg\":\"" + alg + "\"" + (kid != null ? ",\"kid\":\"" + kid + "\"" : "") + ",\"typ\":\"JWT\"}";
+        String payload = claimsValidator.createWarmUpPayload(System.currentTimeMillis() / 1000 + 3600);
+        byte[] signature = new byte[signatureLength];
+        Arrays.fill(signature, (byte) 0x5a);
+
+        return ENCODER.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "."
+                + ENCODER.encodeToString(signature);
+    }
+
+    /**
+     * Run the full validation, which fails at the signature check, followed by the principal extraction,
+     * which is otherwise never reached.
+     *
+     * Stops early if the thread is interrupted.
+     */
+    static void run(int iterations, List<String> tokens, Consumer<String> validate, JWTDecoder decoder, JWTClaimsValidator claimsValidator) {
+        for (int i = 0; i < iterations && !Thread.currentThread().isInterrupted(); i++) {
+            for (String token: tokens) {
+                try {
+                    validate.accept(token);
+                    throw new IllegalStateException("Synthetic token passed the validation");
+                } catch (TokenValidationException expected) {
+                    // The signature is invalid
+                }
+                claimsValidator.createTokenInfo(token, decoder.decode(token));
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpUtilTest {
+
+    @Test
+    public void testParseMaxAge() {
+        Assert.assertEquals(300, HttpUtil.parseMaxAge("max-age=300", null));
+        Assert.assertEquals(300, HttpUtil.parseMaxAge("public, Max-Age=\"300\"", null));
+        Assert.assertEquals(240, HttpUtil.parseMaxAge("max-age=300", "60"));
+        Assert.assertEquals(300, HttpUtil.parseMaxAge("max-age=300", "invalid"));
+    }
+
+    @Test
+    public void testParseMaxAgeWithoutUsableHint() {
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge(null, null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("public", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("max-age=invalid", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("no-cache", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("no-store", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("no-cache, max-age=300", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("max-age=300, no-cache", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("max-age=0", null));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("max-age=300", "300"));
+        Assert.assertEquals(-1, HttpUtil.parseMaxAge("max-age=300", "600"));
+    }
+}
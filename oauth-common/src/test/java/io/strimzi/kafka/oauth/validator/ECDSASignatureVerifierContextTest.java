@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ECDSASignatureVerifierContextTest {
+
+    private static final byte[] DATA = "eyJhbGciOiJFUzI1NiJ9.eyJzdWIiOiJhbGljZSJ9".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Reference encoding of the concatenated R and S values as ASN.1 DER, using BigInteger for the INTEGER values
+     */
+    private static byte[] referenceDER(byte[] p1363) {
+        int len = p1363.length / 2;
+        byte[] r = new BigInteger(1, Arrays.copyOfRange(p1363, 0, len)).toByteArray();
+        byte[] s = new BigInteger(1, Arrays.copyOfRange(p1363, len, 2 * len)).toByteArray();
+        int contentLen = 2 + r.length + 2 + s.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x30);
+        if (contentLen > 127) {
+            out.write(0x81);
+        }
+        out.write(contentLen);
+        out.write(0x02);
+        out.write(r.length);
+        out.write(r, 0, r.length);
+        out.write(0x02);
+        out.write(s.length);
+        out.write(s, 0, s.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the DER encoded signature produced by JCA into the concatenated R and S values
+     */
+    private static byte[] toP1363(byte[] der, int signLength) {
+        int len = signLength / 2;
+        int o = der[1] == (byte) 0x81 ? 3 : 2;
+        byte[] result = new byte[signLength];
+        for (int i = 0; i < 2; i++) {
+            int intLen = der[o + 1];
+            byte[] value = new BigInteger(1, Arrays.copyOfRange(der, o + 2, o + 2 + intLen)).toByteArray();
+            int skip = value.length > len ? value.length - len : 0;
+            System.arraycopy(value, skip, result, i * len + len - (value.length - skip), value.length - skip);
+            o += 2 + intLen;
+        }
+        return result;
+    }
+
+    private static Signature p1363Signature(String javaAlgorithm) {
+        try {
+            return Signature.getInstance(javaAlgorithm + "inP1363Format");
+        } catch (GeneralSecurityException e) {
+            // Not available before Java 9
+            return null;
+        }
+    }
+
+    private static void checkCurve(String curve, String algorithm, String javaAlgorithm) throws Exception {
+        int signLength = ECDSASignatureVerifierContext.ECDSA.valueOf(algorithm).getSignatureLength();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        Signature signer = Signature.getInstance(javaAlgorithm);
+        signer.initSign(keyPair.getPrivate());
+        Signature derVerifier = Signature.getInstance(javaAlgorithm);
+        derVerifier.initVerify(keyPair.getPublic());
+        Signature p1363Verifier = p1363Signature(javaAlgorithm);
+        if (p1363Verifier != null) {
+            p1363Verifier.initVerify(keyPair.getPublic());
+        }
+        PublicKeyVerifier verifier = new PublicKeyVerifier("key1", keyPair.getPublic());
+
+        int highBit = 0;
+        int leadingZero = 0;
+        // Keep signing until both the high bit and the leading zero byte cases have been seen
+        for (int i = 0; i < 100 || (highBit == 0 || leadingZero == 0) && i < 10000; i++) {
+            signer.update(DATA);
+            byte[] der = signer.sign();
+            byte[] p1363 = toP1363(der, signLength);
+            if (p1363[0] < 0 || p1363[signLength / 2] < 0) {
+                highBit++;
+            }
+            if (p1363[0] == 0 || p1363[signLength / 2] == 0) {
+                leadingZero++;
+            }
+
+            // The signature encoded by JCA is the canonical DER encoding
+            byte[] encoded = ECDSASignatureVerifierContext.concatenatedRSToASN1DER(p1363, signLength);
+            Assert.assertArrayEquals(algorithm + " signature " + i, der, encoded);
+
+            derVerifier.update(DATA);
+            Assert.assertTrue(derVerifier.verify(encoded));
+            if (p1363Verifier != null) {
+                p1363Verifier.update(DATA);
+                Assert.assertTrue(p1363Verifier.verify(p1363));
+            }
+            // Both the JWS (P1363) and the legacy DER encoded signatures are accepted
+            Assert.assertTrue(verifier.verify(algorithm, DATA, DATA.length, p1363, p1363.length));
+            Assert.assertTrue(verifier.verify(algorithm, DATA, DATA.length, der, der.length));
+
+            byte[] tampered = p1363.clone();
+            tampered[signLength - 1] ^= 1;
+            Assert.assertFalse(verifier.verify(algorithm, DATA, DATA.length, tampered, tampered.length));
+        }
+        Assert.assertTrue(algorithm + " signatures with the high bit set in R or S: " + highBit, highBit > 0);
+        Assert.assertTrue(algorithm + " signatures with a leading zero byte in R or S: " + leadingZero, leadingZero > 0);
+    }
+
+    @Test
+    public void testES256() throws Exception {
+        checkCurve("secp256r1", "ES256", "SHA256withECDSA");
+    }
+
+    @Test
+    public void testES384() throws Exception {
+        checkCurve("secp384r1", "ES384", "SHA384withECDSA");
+    }
+
+    @Test
+    public void testES512() throws Exception {
+        // The 521 bit values always have the leading zero bits, and never the high bit set in their first byte,
+        // so the high bit is only seen in the second byte - covered by the reference encoding test below
+        int signLength = ECDSASignatureVerifierContext.ECDSA.ES512.getSignatureLength();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp521r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        Signature signer = Signature.getInstance("SHA512withECDSA");
+        signer.initSign(keyPair.getPrivate());
+        PublicKeyVerifier verifier = new PublicKeyVerifier("key1", keyPair.getPublic());
+
+        for (int i = 0; i < 100; i++) {
+            signer.update(DATA);
+            byte[] der = signer.sign();
+            // Long form SEQUENCE length
+            Assert.assertEquals((byte) 0x81, der[1]);
+            byte[] p1363 = toP1363(der, signLength);
+            Assert.assertArrayEquals("ES512 signature " + i, der, ECDSASignatureVerifierContext.concatenatedRSToASN1DER(p1363, signLength));
+            Assert.assertTrue(verifier.verify("ES512", DATA, DATA.length, p1363, p1363.length));
+            Assert.assertTrue(verifier.verify("ES512", DATA, DATA.length, der, der.length));
+        }
+    }
+
+    @Test
+    public void testEncodingOfEdgeValues() {
+        Random random = new Random(42);
+        for (ECDSASignatureVerifierContext.ECDSA ecdsa: ECDSASignatureVerifierContext.ECDSA.values()) {
+            int signLength = ecdsa.getSignatureLength();
+            int len = signLength / 2;
+            for (int i = 0; i < 1000; i++) {
+                byte[] p1363 = new byte[signLength];
+                random.nextBytes(p1363);
+                switch (i % 6) {
+                    case 0:
+                        // High bit set in both values
+                        p1363[0] |= (byte) 0x80;
+                        p1363[len] |= (byte) 0x80;
+                        break;
+                    case 1:
+                        // Several leading zero bytes, followed by a byte with the high bit set
+                        Arrays.fill(p1363, 0, 3, (byte) 0);
+                        p1363[3] |= (byte) 0x80;
+                        Arrays.fill(p1363, len, len + 5, (byte) 0);
+                        break;
+                    case 2:
+                        // Leading zero byte, followed by a byte without the high bit set
+                        p1363[0] = 0;
+                        p1363[1] &= 0x7f;
+                        p1363[len] = 0;
+                        break;
+                    case 3:
+                        // The smallest values
+                        Arrays.fill(p1363, (byte) 0);
+                        p1363[len - 1] = 1;
+                        p1363[signLength - 1] = (byte) 0x80;
+                        break;
+                    case 4:
+                        // All bits set
+                        Arrays.fill(p1363, (byte) 0xff);
+                        break;
+                    default:
+                }
+                byte[] der = ECDSASignatureVerifierContext.concatenatedRSToASN1DER(p1363, signLength);
+                Assert.assertArrayEquals(ecdsa + " value " + i, referenceDER(p1363), der);
+                Assert.assertTrue(der.length <= ECDSASignatureVerifierContext.maxDERLength(signLength));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLength() {
+        ECDSASignatureVerifierContext.concatenatedRSToASN1DER(new byte[63], 64);
+    }
+}
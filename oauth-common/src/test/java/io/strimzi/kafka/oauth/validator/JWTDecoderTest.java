@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+public class JWTDecoderTest {
+
+    private static final String HEADER = "{\"alg\":\"RS256\",\"kid\":\"key1\",\"typ\":\"JWT\"}";
+
+    private static final String SIGNATURE = encode(new byte[] {(byte) 0xfb, (byte) 0xff, 0x01, 0x02, 0x03});
+
+    private static String encode(String json) {
+        return encode(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(byte[] value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
+    }
+
+    private static String token(String header, String payload) {
+        return encode(header) + "." + encode(payload) + "." + SIGNATURE;
+    }
+
+    private static void assertInvalid(JWTDecoder decoder, String token, String message) {
+        try {
+            decoder.decode(token);
+            Assert.fail("Should have failed: " + token);
+        } catch (TokenValidationException e) {
+            Assert.assertEquals("invalid_token", e.status());
+            Assert.assertTrue("Unexpected message: " + e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        JWTDecoder decoder = new JWTDecoder("preferred_username", "groups", null);
+        String payload = "{\"exp\":1600000000,\"iat\":1599999000,\"nbf\":1599999000,\"iss\":\"http://issuer\",\"typ\":\"Bearer\","
+                + "\"sub\":\"1234\",\"jti\":\"id-1\",\"aud\":[\"kafka\",null,{\"x\":1},\"other\"],\"scope\":\"read write\","
+                + "\"preferred_username\":\"alice\",\"groups\":[\"a\",\"b\"],\"unused\":{\"nested\":[1,[2,{\"a\":3}]]}}";
+        String token = token(HEADER, payload);
+        DecodedToken t = decoder.decode(token);
+
+        Assert.assertEquals("RS256", t.algorithm());
+        Assert.assertEquals("key1", t.kid());
+        Assert.assertEquals(Long.valueOf(1600000000), t.exp());
+        Assert.assertEquals(Long.valueOf(1599999000), t.iat());
+        Assert.assertEquals(Long.valueOf(1599999000), t.nbf());
+        Assert.assertEquals("http://issuer", t.issuer());
+        Assert.assertEquals("Bearer", t.type());
+        Assert.assertEquals("1234", t.subject());
+        Assert.assertEquals("id-1", t.jti());
+        Assert.assertEquals("read write", t.scope());
+        Assert.assertTrue(t.hasAudience("kafka"));
+        Assert.assertTrue(t.hasAudience("other"));
+        Assert.assertFalse(t.hasAudience("x"));
+        Assert.assertEquals("alice", t.claim("preferred_username"));
+        // Structured values follow JsonNode.asText()
+        Assert.assertEquals("", t.claim("groups"));
+        Assert.assertNull(t.claim("unused"));
+
+        int signingInputLength = token.lastIndexOf('.');
+        Assert.assertEquals(signingInputLength, t.signingInputLength);
+        Assert.assertEquals(token.substring(0, signingInputLength),
+                new String(t.signingInput, 0, t.signingInputLength, StandardCharsets.US_ASCII));
+        Assert.assertArrayEquals(new byte[] {(byte) 0xfb, (byte) 0xff, 0x01, 0x02, 0x03}, Arrays.copyOf(t.signature, t.signatureLength));
+    }
+
+    @Test
+    public void testMissingAndNullClaims() {
+        JWTDecoder decoder = new JWTDecoder("name");
+        DecodedToken t = decoder.decode(token("{\"alg\":\"HS256\"}", "{\"exp\":null,\"iss\":null,\"aud\":\"kafka\",\"scope\":[\"a\",\"b\"],\"name\":null}"));
+        Assert.assertNull(t.kid());
+        Assert.assertNull(t.exp());
+        Assert.assertNull(t.iat());
+        Assert.assertNull(t.issuer());
+        Assert.assertTrue(t.hasAudience("kafka"));
+        Assert.assertEquals("a b", t.scope());
+        Assert.assertEquals("null", t.claim("name"));
+
+        t = decoder.decode(token("{}", "{}"));
+        Assert.assertNull(t.algorithm());
+        Assert.assertNull(t.claim("name"));
+        Assert.assertFalse(t.hasAudience("kafka"));
+    }
+
+    @Test
+    public void testEscapes() {
+        JWTDecoder decoder = new JWTDecoder("name");
+        DecodedToken t = decoder.decode(token("{\"alg\":\"RS256\",\"kid\":\"k\\\"1\\u0041\"}",
+                "{\"iss\":\"http:\\/\\/issuer\",\"sub\":\"\\u017eluva \\ud83d\\ude00\",\"na\\u006de\":\"a\\\\b\\n\",\"exp\":1}"));
+        Assert.assertEquals("k\"1A", t.kid());
+        Assert.assertEquals("http://issuer", t.issuer());
+        Assert.assertEquals("žluva 😀", t.subject());
+        Assert.assertEquals("a\\b\n", t.claim("name"));
+
+        // Non-ASCII characters in UTF-8
+        t = decoder.decode(token(HEADER, "{\"sub\":\"žluva\",\"exp\":1}"));
+        Assert.assertEquals("žluva", t.subject());
+    }
+
+    @Test
+    public void testNumbers() {
+        JWTDecoder decoder = new JWTDecoder("n");
+        DecodedToken t = decoder.decode(token(HEADER, "{\"exp\":1600000000.9,\"iat\":\"1599999000\",\"nbf\":0,\"n\":1.5e3}"));
+        Assert.assertEquals(Long.valueOf(1600000000), t.exp());
+        Assert.assertEquals(Long.valueOf(1599999000), t.iat());
+        Assert.assertEquals(Long.valueOf(0), t.nbf());
+        Assert.assertEquals("1.5e3", t.claim("n"));
+
+        assertInvalid(decoder, token(HEADER, "{\"exp\":\"soon\"}"), "Invalid value of 'exp' claim");
+        assertInvalid(decoder, token(HEADER, "{\"exp\":true}"), "Invalid value of 'exp' claim");
+        // Structured values are skipped, and treated as missing
+        Assert.assertNull(decoder.decode(token(HEADER, "{\"iat\":[1],\"exp\":{\"a\":1}}")).iat());
+        assertInvalid(decoder, token(HEADER, "{\"exp\":99999999999999999999}"), "Failed to parse token payload");
+    }
+
+    @Test
+    public void testNesting() {
+        StringBuilder deep = new StringBuilder("{\"exp\":1,\"deep\":");
+        for (int i = 0; i < 10000; i++) {
+            deep.append('[');
+        }
+        for (int i = 0; i < 10000; i++) {
+            deep.append(']');
+        }
+        deep.append(",\"iss\":\"after\"}");
+        DecodedToken t = new JWTDecoder().decode(token(HEADER, deep.toString()));
+        Assert.assertEquals("after", t.issuer());
+        Assert.assertEquals(10001, JWTDecoder.readNestingDepth(token(HEADER, deep.toString())));
+
+        // Brackets inside strings are not counted
+        Assert.assertEquals(1, JWTDecoder.readNestingDepth(token(HEADER, "{\"a\":\"[[{\\\"{\"}")));
+        Assert.assertEquals(3, JWTDecoder.readNestingDepth(token(HEADER, "{\"a\":{\"b\":[1]}}")));
+        Assert.assertEquals(2, JWTDecoder.readNestingDepth(token("{\"crit\":[\"x\"]}", "{}")));
+
+        assertInvalid(new JWTDecoder(), token(HEADER, "{\"a\":[1,2}"), "Failed to parse token payload");
+        assertInvalid(new JWTDecoder(), token(HEADER, "{\"a\":{\"b\":1}"), "Failed to parse token payload");
+    }
+
+    @Test
+    public void testMalformedSegments() {
+        JWTDecoder decoder = new JWTDecoder();
+        String header = encode(HEADER);
+        String payload = encode("{\"exp\":1}");
+
+        assertInvalid(decoder, "opaque", "not in JWS compact form");
+        assertInvalid(decoder, header + "." + payload, "not in JWS compact form");
+        assertInvalid(decoder, header + "." + payload + "." + SIGNATURE + ".x", "Too many token segments");
+        assertInvalid(decoder, header + "." + payload + "." + SIGNATURE + "é", "Illegal character");
+        assertInvalid(decoder, "." + payload + "." + SIGNATURE, "Token header is not a JSON object");
+        assertInvalid(decoder, header + ".." + SIGNATURE, "Token payload is not a JSON object");
+        assertInvalid(decoder, header + ".a." + SIGNATURE, "Invalid base64url encoding of token payload");
+        assertInvalid(decoder, header + "." + payload + ".a", "Invalid base64url encoding of token signature");
+        assertInvalid(decoder, "e30*." + payload + "." + SIGNATURE, "Invalid base64url encoding of token header");
+        assertInvalid(decoder, encode("[]") + "." + payload + "." + SIGNATURE, "Token header is not a JSON object");
+        assertInvalid(decoder, header + "." + encode("\"exp\"") + "." + SIGNATURE, "Token payload is not a JSON object");
+        assertInvalid(decoder, header + "." + encode("{\"exp\":1") + "." + SIGNATURE, "Failed to parse token payload");
+        assertInvalid(decoder, encode("{\"alg\"") + "." + payload + "." + SIGNATURE, "Failed to parse token header");
+
+        // An empty signature is decoded, and left to the signature check
+        Assert.assertEquals(0, decoder.decode(header + "." + payload + ".").signatureLength);
+    }
+
+    @Test
+    public void testNonCanonicalEncodings() {
+        JWTDecoder decoder = new JWTDecoder();
+        String header = encode(HEADER);
+        String payload = encode("{\"exp\":1}");
+        // 0xfb 0xff encodes to '-' and '_' in base64url, and to '+' and '/' in base64
+        Assert.assertEquals("-_8BAgM", SIGNATURE);
+
+        // The base64 alphabet
+        assertInvalid(decoder, header + "." + payload + ".+_8BAgM", "Invalid base64url encoding of token signature");
+        assertInvalid(decoder, header + "." + payload + ".-/8BAgM", "Invalid base64url encoding of token signature");
+        // Padding
+        assertInvalid(decoder, header + "." + payload + "." + SIGNATURE + "=", "Invalid base64url encoding of token signature");
+        assertInvalid(decoder, encode(HEADER + " ") + "==." + payload + "." + SIGNATURE, "Invalid base64url encoding of token header");
+        // Non-zero unused bits in the last character - 'N' and 'O' would decode to the same bytes as 'M'
+        assertInvalid(decoder, header + "." + payload + ".-_8BAgN", "Invalid base64url encoding of token signature");
+        assertInvalid(decoder, header + "." + payload + ".-_8BAgO", "Invalid base64url encoding of token signature");
+        // The same for the two character tail
+        Assert.assertEquals(1, decoder.decode(header + "." + payload + ".AA").signatureLength);
+        assertInvalid(decoder, header + "." + payload + ".AB", "Invalid base64url encoding of token signature");
+
+        Assert.assertEquals(5, decoder.decode(header + "." + payload + "." + SIGNATURE).signatureLength);
+    }
+
+    @Test
+    public void testReadIssuer() {
+        Assert.assertEquals("http://issuer", JWTDecoder.readIssuer(token(HEADER, "{\"a\":{\"iss\":\"nested\"},\"iss\":\"http://issuer\"}")));
+        Assert.assertNull(JWTDecoder.readIssuer(token(HEADER, "{\"exp\":1}")));
+        Assert.assertEquals("{\"exp\":1}", JWTDecoder.readPayload(token(HEADER, "{\"exp\":1}")));
+    }
+}
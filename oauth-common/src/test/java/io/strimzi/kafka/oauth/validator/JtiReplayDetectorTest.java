@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JtiReplayDetectorTest {
+
+    private static final int SLOTS = 8;
+
+    private final ValidationStages stages = new ValidationStages();
+
+    @Test
+    public void testReplay() {
+        JtiReplayDetector detector = new JtiReplayDetector(3600, 1000, 0.0001, false);
+        long expiresAt = System.currentTimeMillis() + 600_000;
+
+        Assert.assertNull(detector.check("jti-1", expiresAt, stages));
+        Assert.assertNull(detector.check("jti-2", expiresAt, stages));
+
+        ValidationFailure failure = detector.check("jti-1", expiresAt, stages);
+        Assert.assertNotNull(failure);
+        Assert.assertEquals("invalid_token", failure.status());
+        Assert.assertTrue(failure.message(), failure.message().contains("already been used"));
+        Assert.assertNotNull(detector.check("jti-2", expiresAt, stages));
+        Assert.assertNotNull(detector.check("jti-1", expiresAt, stages));
+
+        // Tokens without 'jti' are not tracked
+        Assert.assertNull(detector.check(null, expiresAt, stages));
+        Assert.assertNull(detector.check(null, expiresAt, stages));
+
+        Assert.assertEquals(5, detector.getCheckCount());
+        Assert.assertEquals(3, detector.getReplayCount());
+        Assert.assertEquals(2, detector.getWithoutJtiCount());
+        Assert.assertEquals(4, stages.getPassedCount(ValidationStages.Stage.REPLAY));
+        Assert.assertEquals(3, stages.getRejectedCount(ValidationStages.Stage.REPLAY));
+    }
+
+    @Test
+    public void testFalsePositivesAreConfirmed() {
+        // The smallest filter, which is hit by most of the ids once it fills up
+        JtiReplayDetector detector = new JtiReplayDetector(3600, 1, 0.5, false);
+        long expiresAt = System.currentTimeMillis() + 600_000;
+
+        // The exact set holds all of these, so every filter hit is confirmed to be a false positive
+        for (int i = 0; i < 500; i++) {
+            Assert.assertNull("jti-" + i, detector.check("jti-" + i, expiresAt, stages));
+        }
+        Assert.assertTrue(detector.getFilterHitCount() > 0);
+        Assert.assertEquals(detector.getFilterHitCount(), detector.getFalsePositiveCount());
+        Assert.assertEquals(0, detector.getReplayCount());
+        Assert.assertTrue(detector.getFalsePositiveRate() > 0.5);
+
+        // Replays are still rejected
+        for (int i = 0; i < 500; i++) {
+            Assert.assertNotNull("jti-" + i, detector.check("jti-" + i, expiresAt, stages));
+        }
+        Assert.assertEquals(500, detector.getReplayCount());
+    }
+
+    @Test
+    public void testExactSetOverflow() {
+        JtiReplayDetector detector = new JtiReplayDetector(3600, 1, 0.5, false);
+        long expiresAt = System.currentTimeMillis() + 600_000;
+
+        // Once the exact set has dropped ids, the filter hits can't be confirmed, and the tokens are rejected
+        int rejected = 0;
+        for (int i = 0; i < 5000; i++) {
+            if (detector.check("jti-" + i, expiresAt, stages) != null) {
+                rejected++;
+            }
+        }
+        Assert.assertTrue(rejected > 0);
+        Assert.assertEquals(rejected, detector.getReplayCount());
+    }
+
+    @Test
+    public void testBeyondWindow() {
+        long now = System.currentTimeMillis();
+        long beyond = now + 7_200_000;
+        long within = now + 600_000;
+
+        JtiReplayDetector detector = new JtiReplayDetector(3600, 1000, 0.0001, false);
+        Assert.assertNull(detector.check("jti-1", beyond, stages));
+        // Not tracked
+        Assert.assertNull(detector.check("jti-1", beyond, stages));
+        Assert.assertEquals(2, detector.getBeyondWindowCount());
+        Assert.assertEquals(0, detector.getReplayCount());
+
+        Assert.assertNull(detector.check("jti-2", within, stages));
+        Assert.assertNotNull(detector.check("jti-2", within, stages));
+
+        JtiReplayDetector rejecting = new JtiReplayDetector(3600, 1000, 0.0001, true);
+        ValidationFailure failure = rejecting.check("jti-1", beyond, stages);
+        Assert.assertNotNull(failure);
+        Assert.assertTrue(failure.message(), failure.message().contains("beyond the replay detection window"));
+        Assert.assertEquals(1, rejecting.getBeyondWindowCount());
+        Assert.assertNull(rejecting.check("jti-2", within, stages));
+    }
+
+    @Test
+    public void testSlotRollover() throws Exception {
+        // The slots are about 143 ms long
+        JtiReplayDetector detector = new JtiReplayDetector(1, 1000, 0.0001, false);
+        long slotMillis = (1000 + SLOTS - 2) / (SLOTS - 1);
+
+        long slot = System.currentTimeMillis() / slotMillis;
+        long expiresAt = slot * slotMillis;
+        Assert.assertNull(detector.check("jti-1", expiresAt, stages));
+        Assert.assertNotNull(detector.check("jti-1", expiresAt, stages));
+
+        // Wait for the slot to pass, so that its filter can be reused
+        while (System.currentTimeMillis() / slotMillis <= slot) {
+            Thread.sleep(10);
+        }
+
+        // A token expiring in the later slot that uses the same filter clears it
+        long laterExpiresAt = (slot + SLOTS) * slotMillis;
+        Assert.assertNull(detector.check("jti-2", laterExpiresAt, stages));
+        Assert.assertNull(detector.check("jti-1", laterExpiresAt, stages));
+
+        // A late check of a token from the earlier slot doesn't wipe the filter, and the token is rejected as expired
+        ValidationFailure failure = detector.check("jti-3", expiresAt, stages);
+        Assert.assertNotNull(failure);
+        Assert.assertEquals("expired_token", failure.status());
+        Assert.assertEquals(1, detector.getExpiredCount());
+
+        Assert.assertNotNull(detector.check("jti-2", laterExpiresAt, stages));
+        Assert.assertNotNull(detector.check("jti-1", laterExpiresAt, stages));
+        Assert.assertEquals(0, detector.getFalsePositiveCount());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server;
+
+import java.util.Properties;
+
+/**
+ * The configuration of one of the issuers listed in <code>oauth.issuers</code>.
+ *
+ * The value of every <code>oauth.*</code> key is first looked up under the issuer's prefix -
+ * e.g. <code>oauth.jwks.endpoint.uri</code> of the issuer <code>realm1</code> is looked up as
+ * <code>oauth.issuer.realm1.jwks.endpoint.uri</code>. If not found, the listener-level value is used.
+ */
+class IssuerConfig extends ServerConfig {
+
+    private final String name;
+    private final String prefix;
+
+    IssuerConfig(String name, Properties p) {
+        super(p);
+        this.name = name;
+        this.prefix = ServerConfig.OAUTH_ISSUER_PREFIX + name + ".";
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Get the value set under the issuer's prefix, without falling back to the listener-level value.
+     *
+     * @param key Config key
+     * @return Config value or null if not set for this issuer
+     */
+    String getIssuerValue(String key) {
+        return key.startsWith("oauth.") ? super.getValue(prefix + key.substring("oauth.".length()), null) : null;
+    }
+
+    @Override
+    public String getValue(String key, String fallback) {
+        String result = getIssuerValue(key);
+        return result != null ? result : super.getValue(key, fallback);
+    }
+}
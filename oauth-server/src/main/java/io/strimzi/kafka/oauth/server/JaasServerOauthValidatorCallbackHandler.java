@@ -7,19 +7,27 @@ package io.strimzi.kafka.oauth.server;
 import io.strimzi.kafka.oauth.common.Config;
 import io.strimzi.kafka.oauth.common.ConfigUtil;
 import io.strimzi.kafka.oauth.common.BearerTokenWithPayload;
+import io.strimzi.kafka.oauth.common.DigestUtil;
+import io.strimzi.kafka.oauth.common.ExpiringCache;
 import io.strimzi.kafka.oauth.common.PrincipalExtractor;
+import io.strimzi.kafka.oauth.validator.HMACSignatureValidator;
+import io.strimzi.kafka.oauth.validator.JWKSKeySource;
+import io.strimzi.kafka.oauth.validator.JtiReplayDetector;
+import io.strimzi.kafka.oauth.validator.JWKSKeySourceRegistry;
+import io.strimzi.kafka.oauth.validator.JWTDecoder;
 import io.strimzi.kafka.oauth.validator.JWTSignatureValidator;
+import io.strimzi.kafka.oauth.validator.MultiIssuerValidator;
 import io.strimzi.kafka.oauth.validator.OAuthIntrospectionValidator;
+import io.strimzi.kafka.oauth.validator.PublicKeyVerifier;
+import io.strimzi.kafka.oauth.validator.SignatureProviders;
 import io.strimzi.kafka.oauth.common.TokenInfo;
 import io.strimzi.kafka.oauth.validator.TokenValidator;
 import io.strimzi.kafka.oauth.validator.TokenValidationException;
+import io.strimzi.kafka.oauth.validator.ValidationFailure;
 import org.apache.kafka.common.errors.AuthenticationException;
 import org.apache.kafka.common.security.auth.AuthenticateCallbackHandler;
 import org.apache.kafka.common.security.oauthbearer.OAuthBearerLoginModule;
 import org.apache.kafka.common.security.oauthbearer.OAuthBearerValidatorCallback;
-import org.keycloak.jose.jws.JWSInput;
-import org.keycloak.jose.jws.JWSInputException;
-import org.keycloak.representations.AccessToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,10 +39,25 @@ import javax.security.auth.login.AppConfigurationEntry;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static io.strimzi.kafka.oauth.common.DeprecationUtil.isAccessTokenJwt;
 import static io.strimzi.kafka.oauth.common.LogUtil.mask;
@@ -43,12 +66,38 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
 
     private static final Logger log = LoggerFactory.getLogger(JaasServerOauthValidatorCallbackHandler.class);
 
+    private static final String CONNECTIONS_MAX_REAUTH_MS = "connections.max.reauth.ms";
+
     private TokenValidator validator;
 
+    private final List<JWKSKeySource> keySources = new ArrayList<>();
+
+    private ExecutorService validationExecutor;
+
+    private long validationTimeoutMillis;
+
+    private ExpiringCache<String, String> rejectedTokens = new ExpiringCache<>(0);
+
+    private long rejectedTokenTtlMillis;
+
+    private ExpiringCache<String, TokenInfo> reauthTokens = new ExpiringCache<>(0);
+
+    private long reauthTokenTtlMillis;
+
+    private final Consumer<Map<String, PublicKeyVerifier>> keysListener = verifiers -> reauthTokens.clear();
+
+    private Thread warmUpThread;
+
+    private ValidationLatencyRecorder latencyRecorder;
+
+    private TokenLimits tokenLimits;
+
     private ServerConfig config;
 
     private boolean isJwt;
 
+    private boolean isReauthEnabled;
+
     @Override
     public void configure(Map<String, ?> configs, String saslMechanism, List<AppConfigurationEntry> jaasConfigEntries) {
 
@@ -66,13 +115,86 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
         config = new ServerConfig(p);
 
         isJwt = isAccessTokenJwt(config, log, "OAuth validator configuration error: ");
+        isReauthEnabled = isReauthEnabled(configs, saslMechanism);
 
-        validateConfig();
+        tokenLimits = new TokenLimits(
+                config.getValueAsInt(ServerConfig.OAUTH_TOKEN_MAX_LENGTH, 65536),
+                config.getValueAsInt(ServerConfig.OAUTH_TOKEN_MAX_SEGMENTS, 3),
+                config.getValueAsInt(ServerConfig.OAUTH_TOKEN_MAX_HEADER_LENGTH, 8192),
+                config.getValueAsInt(ServerConfig.OAUTH_TOKEN_MAX_NESTING_DEPTH, 0),
+                isJwt);
+
+        String issuers = config.getValue(ServerConfig.OAUTH_ISSUERS);
+        try {
+            validator = issuers != null ? createMultiIssuerValidator(issuers, p) : createValidator(config);
+        } catch (RuntimeException ex) {
+            releaseKeySources();
+            throw ex;
+        }
+
+        configureValidationExecutor();
+        configureRejectedTokenCache();
+        configureReauthTokenCache();
+
+        int latencyReportCount = config.getValueAsInt(ServerConfig.OAUTH_VALIDATION_LATENCY_REPORT_COUNT, 0);
+        if (latencyReportCount > 0) {
+            latencyRecorder = new ValidationLatencyRecorder(latencyReportCount);
+        }
+
+        int warmUpIterations = config.getValueAsInt(ServerConfig.OAUTH_VALIDATOR_WARMUP_ITERATIONS, 0);
+        if (warmUpIterations > 0) {
+            startWarmUp(warmUpIterations);
+        }
+    }
+
+    /**
+     * Every issuer listed in <code>oauth.issuers</code> gets its own validator, configured with the options
+     * prefixed by <code>oauth.issuer.&lt;name&gt;.</code>, falling back to the listener-level options.
+     * The tokens are routed to the validator by their 'iss' claim.
+     */
+    private TokenValidator createMultiIssuerValidator(String issuers, Properties p) {
+        if (!isJwt) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_ISSUERS is not compatible with OAUTH_ACCESS_TOKEN_IS_JWT=false");
+        }
+
+        Map<String, TokenValidator> validators = new HashMap<>();
+        try {
+            for (String name: issuers.split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                IssuerConfig issuerConfig = new IssuerConfig(name, p);
+                String issuerUri = issuerConfig.getIssuerValue(ServerConfig.OAUTH_VALID_ISSUER_URI);
+                if (issuerUri == null) {
+                    throw new RuntimeException("OAuth validator configuration error: " + ServerConfig.OAUTH_ISSUER_PREFIX + name + ".valid.issuer.uri must be set");
+                }
+                if (validators.containsKey(issuerUri)) {
+                    throw new RuntimeException("OAuth validator configuration error: more than one issuer in OAUTH_ISSUERS uses valid issuer uri: " + issuerUri);
+                }
+                try {
+                    validators.put(issuerUri, createValidator(issuerConfig));
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Failed to configure the validator for issuer '" + name + "': " + e.getMessage(), e);
+                }
+            }
+            if (validators.isEmpty()) {
+                throw new RuntimeException("OAuth validator configuration error: OAUTH_ISSUERS is empty");
+            }
+            return new MultiIssuerValidator(validators);
+
+        } catch (RuntimeException e) {
+            validators.values().forEach(TokenValidator::close);
+            throw e;
+        }
+    }
+
+    private TokenValidator createValidator(ServerConfig config) {
+        validateConfig(config);
 
         SSLSocketFactory socketFactory = ConfigUtil.createSSLFactory(config);
         HostnameVerifier verifier = ConfigUtil.createHostnameVerifier(config);
 
-
         String jwksUri = config.getValue(ServerConfig.OAUTH_JWKS_ENDPOINT_URI);
 
         boolean enableBouncy = config.getValueAsBoolean(ServerConfig.OAUTH_CRYPTO_PROVIDER_BOUNCYCASTLE, false);
@@ -104,21 +226,53 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
                 fallbackUsernamePrefix);
 
         if (jwksUri != null) {
-            validator = new JWTSignatureValidator(
-                    config.getValue(ServerConfig.OAUTH_JWKS_ENDPOINT_URI),
+            // All the listeners using the same JWKS endpoint with the same settings share the keys and the refresh job
+            JWKSKeySource keySource = JWKSKeySourceRegistry.acquire(keySourceKey(config), () -> new JWKSKeySource(
+                    jwksUri,
                     socketFactory,
                     verifier,
-                    principalExtractor,
-                    validIssuerUri,
                     config.getValueAsInt(ServerConfig.OAUTH_JWKS_REFRESH_SECONDS, 300),
                     config.getValueAsInt(ServerConfig.OAUTH_JWKS_EXPIRY_SECONDS, 360),
+                    config.getValueAsInt(ServerConfig.OAUTH_JWKS_REFRESH_MIN_PAUSE_SECONDS, 1),
+                    config.getValueAsBoolean(ServerConfig.OAUTH_JWKS_STALE_WHILE_REVALIDATE, false),
+                    config.getValueAsBoolean(ServerConfig.OAUTH_JWKS_REFRESH_USE_CACHE_CONTROL, false),
+                    enableBouncy,
+                    bouncyPosition,
+                    config.getValue(ServerConfig.OAUTH_JWKS_SNAPSHOT_FILE),
+                    SignatureProviders.of(
+                            config.getValueAsBoolean(ServerConfig.OAUTH_CRYPTO_PROVIDER_CALIBRATE, false),
+                            config.getValue(ServerConfig.OAUTH_CRYPTO_PROVIDERS))
+            ));
+
+            keySources.add(keySource);
+
+            return new JWTSignatureValidator(
+                    keySource,
+                    principalExtractor,
+                    validIssuerUri,
                     checkTokenType,
                     null,
-                    enableBouncy,
-                    bouncyPosition
+                    config.getValueAsInt(ServerConfig.OAUTH_VALIDATED_TOKEN_CACHE_MAX_SIZE, 0),
+                    getRetainedClaims(config),
+                    createReplayDetector(config)
             );
+        } else if (config.getValue(ServerConfig.OAUTH_HMAC_SECRET_FILE) != null) {
+            byte[] secret = HMACSignatureValidator.readSecret(config.getValue(ServerConfig.OAUTH_HMAC_SECRET_FILE));
+            try {
+                return new HMACSignatureValidator(
+                        secret,
+                        principalExtractor,
+                        validIssuerUri,
+                        checkTokenType,
+                        null,
+                        getRetainedClaims(config),
+                        createReplayDetector(config)
+                );
+            } finally {
+                Arrays.fill(secret, (byte) 0);
+            }
         } else {
-            validator = new OAuthIntrospectionValidator(
+            return new OAuthIntrospectionValidator(
                     config.getValue(ServerConfig.OAUTH_INTROSPECTION_ENDPOINT_URI),
                     socketFactory,
                     verifier,
@@ -128,11 +282,116 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
                     config.getValue(ServerConfig.OAUTH_VALID_TOKEN_TYPE),
                     config.getValue(Config.OAUTH_CLIENT_ID),
                     config.getValue(Config.OAUTH_CLIENT_SECRET),
-                    null
+                    null,
+                    config.getValueAsInt(ServerConfig.OAUTH_INTROSPECTION_CACHE_MAX_SIZE, 0),
+                    config.getValueAsInt(ServerConfig.OAUTH_INTROSPECTION_CACHE_TTL_SECONDS, 60),
+                    config.getValueAsInt(ServerConfig.OAUTH_INTROSPECTION_CACHE_REFRESH_AHEAD_SECONDS, 0)
             );
         }
     }
 
+    /**
+     * The warm-up runs in the background, so it never delays the broker start, or the authentication.
+     * The validations performed in the meantime simply don't benefit from it yet.
+     * It warms up the class loading and the JIT compilation, not the per-thread instances used by the Kafka threads.
+     */
+    private void startWarmUp(int iterations) {
+        TokenValidator v = validator;
+        warmUpThread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                v.warmUp(iterations);
+                log.info("Validator warm-up completed in " + (System.nanoTime() - start) / 1_000_000 + " ms (iterations: " + iterations + ")");
+            } catch (Throwable e) {
+                log.warn("[IGNORED] Validator warm-up failed after " + (System.nanoTime() - start) / 1_000_000 + " ms", e);
+            }
+        }, "oauth-validator-warmup");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    /**
+     * If configured, the validation is handed off to a bounded pool of threads, so that it can be timed out,
+     * and the number of concurrent validations in progress (e.g. waiting for the introspection endpoint) is limited.
+     */
+    private void configureValidationExecutor() {
+        int threads = config.getValueAsInt(ServerConfig.OAUTH_VALIDATION_EXECUTOR_THREADS, 0);
+        int queueSize = config.getValueAsInt(ServerConfig.OAUTH_VALIDATION_EXECUTOR_QUEUE_SIZE, 1000);
+        int timeoutSeconds = config.getValueAsInt(ServerConfig.OAUTH_VALIDATION_TIMEOUT_SECONDS, 0);
+
+        if (threads < 0 || queueSize < 1 || timeoutSeconds < 0) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_VALIDATION_EXECUTOR_THREADS and OAUTH_VALIDATION_TIMEOUT_SECONDS can't be negative, and OAUTH_VALIDATION_EXECUTOR_QUEUE_SIZE has to be greater than 0");
+        }
+        if (timeoutSeconds > 0 && threads == 0) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_VALIDATION_TIMEOUT_SECONDS requires OAUTH_VALIDATION_EXECUTOR_THREADS to be set");
+        }
+        validationTimeoutMillis = timeoutSeconds * 1000L;
+
+        if (threads > 0) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new ValidationThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            validationExecutor = executor;
+        }
+    }
+
+    /**
+     * If configured, the digests of the tokens that failed the validation for a reason that won't go away
+     * (e.g. invalid signature, expired token, wrong issuer) are kept for a short time, so that a client repeatedly
+     * retrying with such a token is rejected without validating the token again.
+     */
+    private void configureRejectedTokenCache() {
+        int maxSize = config.getValueAsInt(ServerConfig.OAUTH_REJECTED_TOKEN_CACHE_MAX_SIZE, 0);
+        int ttlSeconds = config.getValueAsInt(ServerConfig.OAUTH_REJECTED_TOKEN_CACHE_TTL_SECONDS, 10);
+        if (maxSize > 0 && ttlSeconds <= 0) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_REJECTED_TOKEN_CACHE_TTL_SECONDS has to be greater than 0");
+        }
+        rejectedTokens = new ExpiringCache<>(maxSize);
+        rejectedTokenTtlMillis = ttlSeconds * 1000L;
+    }
+
+    /**
+     * If configured, the tokens that passed the validation are kept until they expire, so that the re-authentication
+     * of the session with the same token, which Kafka performs periodically when <code>connections.max.reauth.ms</code> is set,
+     * only checks the token expiry. The re-authentication can't be told apart from the authentication of a new connection,
+     * so a new connection with a token that already passed the validation skips the validation as well.
+     *
+     * Only the SHA-256 digests of the tokens are used as the keys, and every session gets its own token instance.
+     * A cache hit skips all the validator checks, so the checks performed since the token was first validated, like
+     * the 'jti' replay check, don't apply to it. The entries are kept until the token expires, but no longer than
+     * the interval between the refreshes of the JWKS keys, and the cache is cleared whenever the keys change,
+     * as the key that signed the token may have been removed.
+     * The cache can't be used with the introspection endpoint, which would never see a revoked token again.
+     */
+    private void configureReauthTokenCache() {
+        reauthTokens = new ExpiringCache<>(config.getValueAsInt(ServerConfig.OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE, 0));
+        reauthTokenTtlMillis = Long.MAX_VALUE;
+        if (reauthTokens.isEnabled()) {
+            for (JWKSKeySource keySource: keySources) {
+                keySource.addKeysListener(keysListener);
+                reauthTokenTtlMillis = Math.min(reauthTokenTtlMillis, keySource.getRefreshMillis());
+            }
+        }
+    }
+
+    /**
+     * Get the cache of the tokens available for the re-authentication, which exposes the hit and miss counters.
+     *
+     * @return The re-authentication token cache
+     */
+    public ExpiringCache<String, ?> getReauthTokenCache() {
+        return reauthTokens;
+    }
+
+    /**
+     * Get the cache of the recently rejected tokens, which exposes the hit and miss counters.
+     *
+     * @return The rejected token cache
+     */
+    public ExpiringCache<String, ?> getRejectedTokenCache() {
+        return rejectedTokens;
+    }
+
     @SuppressWarnings("deprecation")
     private static boolean isCheckAccessTokenType(Config config) {
         String legacy = config.getValue(ServerConfig.OAUTH_VALIDATION_SKIP_TYPE_CHECK);
@@ -146,24 +405,111 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
                 config.getValueAsBoolean(ServerConfig.OAUTH_CHECK_ACCESS_TOKEN_TYPE, true);
     }
 
-    private void validateConfig() {
+    /**
+     * The key under which the key source is shared. It includes all the settings that affect how the keys are fetched.
+     */
+    private static String keySourceKey(Config config) {
+        String password = config.getValue(Config.OAUTH_SSL_TRUSTSTORE_PASSWORD);
+        return String.join("|",
+                config.getValue(ServerConfig.OAUTH_JWKS_ENDPOINT_URI),
+                config.getValue(ServerConfig.OAUTH_JWKS_REFRESH_SECONDS, "300"),
+                config.getValue(ServerConfig.OAUTH_JWKS_EXPIRY_SECONDS, "360"),
+                config.getValue(ServerConfig.OAUTH_JWKS_REFRESH_MIN_PAUSE_SECONDS, "1"),
+                String.valueOf(config.getValueAsBoolean(ServerConfig.OAUTH_JWKS_STALE_WHILE_REVALIDATE, false)),
+                String.valueOf(config.getValueAsBoolean(ServerConfig.OAUTH_JWKS_REFRESH_USE_CACHE_CONTROL, false)),
+                String.valueOf(config.getValue(ServerConfig.OAUTH_JWKS_SNAPSHOT_FILE)),
+                String.valueOf(config.getValueAsBoolean(ServerConfig.OAUTH_CRYPTO_PROVIDER_CALIBRATE, false)),
+                String.valueOf(config.getValue(ServerConfig.OAUTH_CRYPTO_PROVIDERS)),
+                String.valueOf(config.getValue(Config.OAUTH_SSL_TRUSTSTORE_LOCATION)),
+                String.valueOf(config.getValue(Config.OAUTH_SSL_TRUSTSTORE_TYPE)),
+                password == null ? "null" : DigestUtil.sha256(password),
+                String.valueOf(config.getValue(Config.OAUTH_SSL_SECURE_RANDOM_IMPLEMENTATION)),
+                config.getValue(Config.OAUTH_SSL_ENDPOINT_IDENTIFICATION_ALGORITHM, "HTTPS"));
+    }
+
+    private void validateConfig(ServerConfig config) {
         String jwksUri = config.getValue(ServerConfig.OAUTH_JWKS_ENDPOINT_URI);
         String introspectUri = config.getValue(ServerConfig.OAUTH_INTROSPECTION_ENDPOINT_URI);
+        String hmacSecretFile = config.getValue(ServerConfig.OAUTH_HMAC_SECRET_FILE);
 
-        if ((jwksUri == null) && (introspectUri == null)) {
-            throw new RuntimeException("OAuth validator configuration error: either OAUTH_JWKS_ENDPOINT_URI (for fast local signature validation) or OAUTH_INTROSPECTION_ENDPOINT_URI (for using authorization server during validation) should be specified!");
-        } else if ((jwksUri != null) && (introspectUri != null)) {
-            throw new RuntimeException("OAuth validator configuration error: only one of OAUTH_JWKS_ENDPOINT_URI (for fast local signature validation) and OAUTH_INTROSPECTION_ENDPOINT_URI (for using authorization server during validation) can be specified!");
+        int count = (jwksUri != null ? 1 : 0) + (introspectUri != null ? 1 : 0) + (hmacSecretFile != null ? 1 : 0);
+        if (count == 0) {
+            throw new RuntimeException("OAuth validator configuration error: either OAUTH_JWKS_ENDPOINT_URI (for fast local signature validation), OAUTH_HMAC_SECRET_FILE (for local validation of tokens signed with a shared secret) or OAUTH_INTROSPECTION_ENDPOINT_URI (for using authorization server during validation) should be specified!");
+        } else if (count > 1) {
+            throw new RuntimeException("OAuth validator configuration error: only one of OAUTH_JWKS_ENDPOINT_URI (for fast local signature validation), OAUTH_HMAC_SECRET_FILE (for local validation of tokens signed with a shared secret) and OAUTH_INTROSPECTION_ENDPOINT_URI (for using authorization server during validation) can be specified!");
         }
 
         if (jwksUri != null && !isJwt) {
             throw new RuntimeException("OAuth validator configuration error: OAUTH_JWKS_ENDPOINT_URI (for fast local signature validation) is not compatible with OAUTH_ACCESS_TOKEN_IS_JWT=false");
         }
+        if (hmacSecretFile != null && !isJwt) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_HMAC_SECRET_FILE (for local validation of tokens signed with a shared secret) is not compatible with OAUTH_ACCESS_TOKEN_IS_JWT=false");
+        }
+        validateOptionCombinations(config, introspectUri);
+    }
+
+    /**
+     * Reject the combinations of the options that can't work together
+     */
+    private void validateOptionCombinations(ServerConfig config, String introspectUri) {
+        if (introspectUri != null && config.getValueAsBoolean(ServerConfig.OAUTH_CHECK_JTI_REPLAY, false)) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_CHECK_JTI_REPLAY is not compatible with OAUTH_INTROSPECTION_ENDPOINT_URI");
+        }
+        if (introspectUri != null && config.getValueAsInt(ServerConfig.OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE, 0) > 0) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE is not compatible with OAUTH_INTROSPECTION_ENDPOINT_URI");
+        }
+        if (config.getValueAsBoolean(ServerConfig.OAUTH_CHECK_JTI_REPLAY, false) && config.getValueAsInt(ServerConfig.OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE, 0) > 0) {
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_CHECK_JTI_REPLAY is not compatible with OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE");
+        }
+        if (isReauthEnabled && config.getValueAsBoolean(ServerConfig.OAUTH_CHECK_JTI_REPLAY, false)) {
+            // The re-authentication presents the same token again, which would be rejected as replayed
+            throw new RuntimeException("OAuth validator configuration error: OAUTH_CHECK_JTI_REPLAY is not compatible with " + CONNECTIONS_MAX_REAUTH_MS + " set on the broker");
+        }
+    }
+
+    /**
+     * @return true if the sessions are periodically re-authenticated, as set by the broker-wide, or the listener and mechanism specific config
+     */
+    private static boolean isReauthEnabled(Map<String, ?> configs, String saslMechanism) {
+        Object value = configs.get(saslMechanism.toLowerCase(Locale.ROOT) + "." + CONNECTIONS_MAX_REAUTH_MS);
+        if (value == null) {
+            value = configs.get(CONNECTIONS_MAX_REAUTH_MS);
+        }
+        return value != null && Long.parseLong(String.valueOf(value).trim()) > 0;
+    }
+
+    /**
+     * @return The limits of the size and structure of the tokens, which expose the counters of rejected tokens
+     */
+    public TokenLimits getTokenLimits() {
+        return tokenLimits;
     }
 
     @Override
     public void close() {
+        if (warmUpThread != null) {
+            warmUpThread.interrupt();
+            warmUpThread = null;
+        }
+        if (validationExecutor != null) {
+            validationExecutor.shutdownNow();
+            validationExecutor = null;
+        }
+        if (validator != null) {
+            validator.close();
+            validator = null;
+        }
+        rejectedTokens.clear();
+        reauthTokens.clear();
+        releaseKeySources();
+    }
 
+    private void releaseKeySources() {
+        for (JWKSKeySource keySource: keySources) {
+            keySource.removeKeysListener(keysListener);
+            JWKSKeySourceRegistry.release(keySource);
+        }
+        keySources.clear();
     }
 
     @Override
@@ -184,16 +530,47 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
 
         String token = callback.tokenValue();
 
+        String digest = digest(token);
+
+        if (reauthenticate(callback, digest)) {
+            return;
+        }
+
+        // Before anything else is done with the token
+        ValidationFailure failure = tokenLimits.check(token);
+        if (failure != null) {
+            if (log.isDebugEnabled()) {
+                log.debug(failure.message() + " (" + tokenLimits + ")");
+            }
+            callback.error(failure.status(), null, null);
+            return;
+        }
+
         debugLogToken(token);
 
+        if (rejectRecentlyRejected(callback, token, digest)) {
+            return;
+        }
+
+        ValidationLatencyRecorder recorder = latencyRecorder;
+        long start = recorder != null && recorder.isRecording() ? System.nanoTime() : 0;
         try {
             TokenInfo ti = validateToken(token);
+            if (log.isDebugEnabled()) {
+                log.debug("Access token expires at (UTC): " + LocalDateTime.ofEpochSecond(ti.expiresAtMs() / 1000, 0, ZoneOffset.UTC).format(DateTimeFormatter.ISO_DATE_TIME));
+            }
+            if (reauthTokens.isEnabled()) {
+                reauthTokens.put(digest, ti, reauthTokenExpiresAt(ti));
+            }
             callback.token(new BearerTokenWithPayloadImpl(ti));
 
         } catch (TokenValidationException e) {
             if (log.isDebugEnabled()) {
                 log.debug("Token validation failed for token: " + mask(token), e);
             }
+            if (rejectedTokens.isEnabled() && !e.isRetriable()) {
+                rejectedTokens.put(digest, e.status(), System.currentTimeMillis() + rejectedTokenTtlMillis);
+            }
             callback.error(e.status(), null, null);
 
         } catch (RuntimeException e) {
@@ -209,7 +586,69 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
             log.error("Unexpected failure during signature check:", e);
 
             throw new RuntimeException("Unexpected failure during signature check:", e);
+
+        } finally {
+            if (start != 0) {
+                recorder.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @return The SHA-256 digest of the token, computed once for any of the token caches, or null if no cache is enabled,
+     * or the token is too long to be hashed
+     */
+    private String digest(String token) {
+        if (!reauthTokens.isEnabled() && !rejectedTokens.isEnabled() || tokenLimits.exceedsMaxLength(token)) {
+            return null;
+        }
+        return DigestUtil.sha256(token);
+    }
+
+    /**
+     * Reject the token with the same status as before, if it was recently rejected.
+     *
+     * @return true if the token was rejected
+     */
+    private boolean rejectRecentlyRejected(OAuthBearerValidatorCallback callback, String token, String digest) {
+        if (!rejectedTokens.isEnabled()) {
+            return false;
+        }
+        String status = rejectedTokens.get(digest);
+        if (status == null) {
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Token validation failed for recently rejected token: " + mask(token) + " (" + rejectedTokens + ")");
+        }
+        callback.error(status, null, null);
+        return true;
+    }
+
+    private long reauthTokenExpiresAt(TokenInfo ti) {
+        long now = System.currentTimeMillis();
+        return reauthTokenTtlMillis < ti.expiresAtMs() - now ? now + reauthTokenTtlMillis : ti.expiresAtMs();
+    }
+
+    /**
+     * Accept the token, which already passed the validation, if it hasn't expired yet.
+     *
+     * @param digest The SHA-256 digest of the token
+     * @return true if the token was accepted
+     */
+    private boolean reauthenticate(OAuthBearerValidatorCallback callback, String digest) {
+        if (!reauthTokens.isEnabled() || digest == null) {
+            return false;
+        }
+        TokenInfo previous = reauthTokens.get(digest);
+        if (previous == null) {
+            return false;
         }
+        if (log.isDebugEnabled()) {
+            log.debug("Token already validated (Principal:" + previous.principal() + ")");
+        }
+        callback.token(new BearerTokenWithPayloadImpl(previous));
+        return true;
     }
 
     private static String getCauseMessage(Throwable e) {
@@ -223,33 +662,95 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
     }
 
     private TokenInfo validateToken(String token) {
-        TokenInfo result = validator.validate(token);
+        TokenInfo result = validationExecutor == null ? validator.validate(token) : validateWithExecutor(token);
         if (log.isDebugEnabled()) {
             log.debug("User validated (Principal:" + result.principal() + ")");
         }
         return result;
     }
 
+    private TokenInfo validateWithExecutor(String token) {
+        CompletableFuture<TokenInfo> future = validator.validateAsync(token, validationExecutor);
+        try {
+            return validationTimeoutMillis > 0 ? future.get(validationTimeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RejectedExecutionException) {
+                throw new RuntimeException("Token validation rejected - too many validations in progress", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Token validation failed: ", cause);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RuntimeException("Token validation timed out after " + validationTimeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for token validation", e);
+        }
+    }
+
+    /**
+     * Log the token payload. It is only decoded, and not parsed, as the claims are parsed by the validator.
+     */
     private void debugLogToken(String token) {
         if (!log.isDebugEnabled() || !isJwt) {
             return;
         }
 
-        JWSInput parser;
         try {
-            parser = new JWSInput(token);
-            log.debug("Token: {}", parser.readContentAsString());
-        } catch (JWSInputException e) {
+            log.debug("Token: {}", JWTDecoder.readPayload(token));
+        } catch (TokenValidationException e) {
             log.debug("[IGNORED] Token doesn't seem to be JWT token: " + mask(token), e);
-            return;
         }
+    }
 
-        try {
-            AccessToken t = parser.readJsonContent(AccessToken.class);
-            log.debug("Access token expires at (UTC): " + LocalDateTime.ofEpochSecond(t.getExp() == null ? 0 : t.getExp(), 0, ZoneOffset.UTC).format(DateTimeFormatter.ISO_DATE_TIME));
-        } catch (JWSInputException e) {
-            // Try parse as refresh token:
-            log.debug("[IGNORED] Failed to parse JWT token's payload", e);
+    /**
+     * @return The detector of replayed tokens, or null if not enabled
+     */
+    private static JtiReplayDetector createReplayDetector(ServerConfig config) {
+        if (!config.getValueAsBoolean(ServerConfig.OAUTH_CHECK_JTI_REPLAY, false)) {
+            return null;
+        }
+        JtiReplayDetector result = new JtiReplayDetector(
+                config.getValueAsInt(ServerConfig.OAUTH_JTI_REPLAY_WINDOW_SECONDS, 3600),
+                config.getValueAsInt(ServerConfig.OAUTH_JTI_REPLAY_EXPECTED_TOKENS, 100000),
+                config.getValueAsDouble(ServerConfig.OAUTH_JTI_REPLAY_FALSE_POSITIVE_RATE, 0.0001),
+                config.getValueAsBoolean(ServerConfig.OAUTH_JTI_REPLAY_REJECT_BEYOND_WINDOW, false));
+        log.info("Replayed tokens are rejected: " + result);
+        return result;
+    }
+
+    /**
+     * @return The claims to keep with the validated token for the lifetime of the session
+     */
+    private static List<String> getRetainedClaims(ServerConfig config) {
+        String value = config.getValue(ServerConfig.OAUTH_RETAINED_CLAIMS);
+        if (value == null) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        for (String claim: value.split(",")) {
+            claim = claim.trim();
+            if (!claim.isEmpty()) {
+                result.add(claim);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Use daemon threads for validation
+     */
+    static class ValidationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "oauth-validation-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
         }
     }
 
@@ -13,14 +13,45 @@ public class ServerConfig extends Config {
     public static final String OAUTH_JWKS_ENDPOINT_URI = "oauth.jwks.endpoint.uri";
     public static final String OAUTH_JWKS_EXPIRY_SECONDS = "oauth.jwks.expiry.seconds";
     public static final String OAUTH_JWKS_REFRESH_SECONDS = "oauth.jwks.refresh.seconds";
+    public static final String OAUTH_JWKS_REFRESH_MIN_PAUSE_SECONDS = "oauth.jwks.refresh.min.pause.seconds";
+    public static final String OAUTH_JWKS_STALE_WHILE_REVALIDATE = "oauth.jwks.stale.while.revalidate";
+    public static final String OAUTH_JWKS_REFRESH_USE_CACHE_CONTROL = "oauth.jwks.refresh.use.cache.control";
+    public static final String OAUTH_JWKS_SNAPSHOT_FILE = "oauth.jwks.snapshot.file";
+    public static final String OAUTH_HMAC_SECRET_FILE = "oauth.hmac.secret.file";
+    public static final String OAUTH_ISSUERS = "oauth.issuers";
+    public static final String OAUTH_ISSUER_PREFIX = "oauth.issuer.";
     public static final String OAUTH_VALID_ISSUER_URI = "oauth.valid.issuer.uri";
     public static final String OAUTH_INTROSPECTION_ENDPOINT_URI = "oauth.introspection.endpoint.uri";
     public static final String OAUTH_USERINFO_ENDPOINT_URI = "oauth.userinfo.endpoint.uri";
     public static final String OAUTH_CHECK_ACCESS_TOKEN_TYPE = "oauth.check.access.token.type";
     public static final String OAUTH_CHECK_ISSUER = "oauth.check.issuer";
+    public static final String OAUTH_CHECK_JTI_REPLAY = "oauth.check.jti.replay";
+    public static final String OAUTH_JTI_REPLAY_WINDOW_SECONDS = "oauth.jti.replay.window.seconds";
+    public static final String OAUTH_JTI_REPLAY_EXPECTED_TOKENS = "oauth.jti.replay.expected.tokens";
+    public static final String OAUTH_JTI_REPLAY_FALSE_POSITIVE_RATE = "oauth.jti.replay.false.positive.rate";
+    public static final String OAUTH_JTI_REPLAY_REJECT_BEYOND_WINDOW = "oauth.jti.replay.reject.beyond.window";
     public static final String OAUTH_CRYPTO_PROVIDER_BOUNCYCASTLE = "oauth.crypto.provider.bouncycastle";
     public static final String OAUTH_CRYPTO_PROVIDER_BOUNCYCASTLE_POSITION = "oauth.crypto.provider.bouncycastle.position";
+    public static final String OAUTH_CRYPTO_PROVIDER_CALIBRATE = "oauth.crypto.provider.calibrate";
+    public static final String OAUTH_CRYPTO_PROVIDERS = "oauth.crypto.providers";
     public static final String OAUTH_VALID_TOKEN_TYPE = "oauth.valid.token.type";
+    public static final String OAUTH_RETAINED_CLAIMS = "oauth.retained.claims";
+    public static final String OAUTH_TOKEN_MAX_LENGTH = "oauth.token.max.length";
+    public static final String OAUTH_TOKEN_MAX_SEGMENTS = "oauth.token.max.segments";
+    public static final String OAUTH_TOKEN_MAX_HEADER_LENGTH = "oauth.token.max.header.length";
+    public static final String OAUTH_TOKEN_MAX_NESTING_DEPTH = "oauth.token.max.nesting.depth";
+    public static final String OAUTH_VALIDATED_TOKEN_CACHE_MAX_SIZE = "oauth.validated.token.cache.max.size";
+    public static final String OAUTH_REJECTED_TOKEN_CACHE_MAX_SIZE = "oauth.rejected.token.cache.max.size";
+    public static final String OAUTH_REJECTED_TOKEN_CACHE_TTL_SECONDS = "oauth.rejected.token.cache.ttl.seconds";
+    public static final String OAUTH_REAUTH_TOKEN_CACHE_MAX_SIZE = "oauth.reauth.token.cache.max.size";
+    public static final String OAUTH_INTROSPECTION_CACHE_MAX_SIZE = "oauth.introspection.cache.max.size";
+    public static final String OAUTH_INTROSPECTION_CACHE_TTL_SECONDS = "oauth.introspection.cache.ttl.seconds";
+    public static final String OAUTH_INTROSPECTION_CACHE_REFRESH_AHEAD_SECONDS = "oauth.introspection.cache.refresh.ahead.seconds";
+    public static final String OAUTH_VALIDATION_EXECUTOR_THREADS = "oauth.validation.executor.threads";
+    public static final String OAUTH_VALIDATION_EXECUTOR_QUEUE_SIZE = "oauth.validation.executor.queue.size";
+    public static final String OAUTH_VALIDATION_TIMEOUT_SECONDS = "oauth.validation.timeout.seconds";
+    public static final String OAUTH_VALIDATOR_WARMUP_ITERATIONS = "oauth.validator.warmup.iterations";
+    public static final String OAUTH_VALIDATION_LATENCY_REPORT_COUNT = "oauth.validation.latency.report.count";
 
     @Deprecated
     public static final String OAUTH_VALIDATION_SKIP_TYPE_CHECK = "oauth.validation.skip.type.check";
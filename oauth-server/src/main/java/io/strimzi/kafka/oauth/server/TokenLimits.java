@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server;
+
+import io.strimzi.kafka.oauth.validator.JWTDecoder;
+import io.strimzi.kafka.oauth.validator.TokenValidationException;
+import io.strimzi.kafka.oauth.validator.ValidationFailure;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The limits of the size and the structure of the tokens, checked before the token is passed to the validator.
+ *
+ * The length is checked first, in constant time, so that oversized tokens are never scanned, decoded or sent
+ * to the introspection endpoint. For JWT tokens, the number of segments and the header length are checked by
+ * scanning the token for the separators, before any decoding. The nesting depth of the JSON in the header and the payload
+ * is only checked if enabled, as it decodes the header and the payload once more, on top of the validator's own decoding.
+ *
+ * The tokens with fewer than two dots can't be JWT tokens, and are left to the validator - the introspection endpoint
+ * may accept opaque tokens, even if <code>oauth.access.token.is.jwt</code> is not set to false.
+ */
+public class TokenLimits {
+
+    private final int maxLength;
+    private final int maxSegments;
+    private final int maxHeaderLength;
+    private final int maxNestingDepth;
+    private final boolean isJwt;
+
+    private final LongAdder tooLongCount = new LongAdder();
+    private final LongAdder tooManySegmentsCount = new LongAdder();
+    private final LongAdder headerTooLongCount = new LongAdder();
+    private final LongAdder nestedTooDeepCount = new LongAdder();
+
+    /**
+     * Create a new instance. The limits set to 0 or less are not enforced.
+     *
+     * @param maxLength The maximum length of the token
+     * @param maxSegments The maximum number of the dot separated segments of JWT token
+     * @param maxHeaderLength The maximum length of the base64url encoded header of JWT token
+     * @param maxNestingDepth The maximum nesting depth of JSON objects and arrays in the header and the payload of JWT token
+     * @param isJwt If false, only the length is checked
+     */
+    TokenLimits(int maxLength, int maxSegments, int maxHeaderLength, int maxNestingDepth, boolean isJwt) {
+        this.maxLength = maxLength;
+        this.maxSegments = maxSegments;
+        this.maxHeaderLength = maxHeaderLength;
+        this.maxNestingDepth = maxNestingDepth;
+        this.isJwt = isJwt;
+    }
+
+    /**
+     * Check the token against the limits
+     *
+     * @param token The raw token
+     * @return The reason for rejecting the token if it exceeds any of the limits, or null
+     */
+    ValidationFailure check(String token) {
+        int len = token.length();
+        if (exceedsMaxLength(token)) {
+            tooLongCount.increment();
+            return ValidationFailure.invalid(() -> "Token validation failed: Token too long (length: " + len + ", max: " + maxLength + ")");
+        }
+        if (!isJwt) {
+            return null;
+        }
+
+        int dot1 = token.indexOf('.');
+        if (dot1 == -1 || token.indexOf('.', dot1 + 1) == -1) {
+            // Not a JWT token
+            return null;
+        }
+
+        if (maxHeaderLength > 0 && dot1 > maxHeaderLength) {
+            headerTooLongCount.increment();
+            return ValidationFailure.invalid(() -> "Token validation failed: Token header too long (max: " + maxHeaderLength + ")");
+        }
+
+        if (maxSegments > 0) {
+            int segments = 1;
+            for (int i = dot1; i != -1; i = token.indexOf('.', i + 1)) {
+                if (++segments > maxSegments) {
+                    tooManySegmentsCount.increment();
+                    return ValidationFailure.invalid(() -> "Token validation failed: Too many token segments (max: " + maxSegments + ")");
+                }
+            }
+        }
+
+        if (maxNestingDepth > 0) {
+            int depth;
+            try {
+                depth = JWTDecoder.readNestingDepth(token);
+            } catch (TokenValidationException e) {
+                return ValidationFailure.invalid(e::getMessage);
+            }
+            if (depth > maxNestingDepth) {
+                nestedTooDeepCount.increment();
+                return ValidationFailure.invalid(() -> "Token validation failed: Token JSON nested too deep (max: " + maxNestingDepth + ")");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param token The raw token
+     * @return true if the token is longer than allowed
+     */
+    boolean exceedsMaxLength(String token) {
+        return maxLength > 0 && token.length() > maxLength;
+    }
+
+    /**
+     * @return The number of tokens rejected for exceeding the maximum length
+     */
+    public long getTooLongCount() {
+        return tooLongCount.sum();
+    }
+
+    /**
+     * @return The number of tokens rejected for having too many segments
+     */
+    public long getTooManySegmentsCount() {
+        return tooManySegmentsCount.sum();
+    }
+
+    /**
+     * @return The number of tokens rejected for exceeding the maximum header length
+     */
+    public long getHeaderTooLongCount() {
+        return headerTooLongCount.sum();
+    }
+
+    /**
+     * @return The number of tokens rejected for exceeding the maximum nesting depth
+     */
+    public long getNestedTooDeepCount() {
+        return nestedTooDeepCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenLimits {maxLength: " + maxLength + ", maxSegments: " + maxSegments + ", maxHeaderLength: " + maxHeaderLength
+                + ", maxNestingDepth: " + maxNestingDepth + ", tooLong: " + getTooLongCount() + ", tooManySegments: " + getTooManySegmentsCount()
+                + ", headerTooLong: " + getHeaderTooLongCount() + ", nestedTooDeep: " + getNestedTooDeepCount() + "}";
+    }
+}
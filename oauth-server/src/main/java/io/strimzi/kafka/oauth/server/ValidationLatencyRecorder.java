@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the duration of the first N token validations after the validator is configured,
+ * and logs their percentiles once all of them have been recorded.
+ *
+ * It allows to see how much slower the validations are right after the broker start, and the effect of the warm-up.
+ */
+class ValidationLatencyRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(ValidationLatencyRecorder.class);
+
+    private final AtomicLongArray samples;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger recorded = new AtomicInteger();
+
+    ValidationLatencyRecorder(int count) {
+        this.samples = new AtomicLongArray(count);
+    }
+
+    /**
+     * @return true if more validations should be recorded
+     */
+    boolean isRecording() {
+        return next.get() < samples.length();
+    }
+
+    void record(long durationNanos) {
+        int i = next.getAndIncrement();
+        if (i >= samples.length()) {
+            return;
+        }
+        samples.set(i, durationNanos);
+        if (recorded.incrementAndGet() == samples.length()) {
+            report();
+        }
+    }
+
+    private void report() {
+        long[] sorted = new long[samples.length()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        log.info("Duration of the first " + sorted.length + " token validations: p50: " + micros(percentile(sorted, 50))
+                + " us, p99: " + micros(percentile(sorted, 99)) + " us, max: " + micros(sorted[sorted.length - 1]) + " us");
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017-2020, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server;
+
+import io.strimzi.kafka.oauth.validator.ValidationFailure;
+import org.apache.kafka.common.errors.AuthenticationException;
+import org.apache.kafka.common.security.oauthbearer.OAuthBearerValidatorCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.login.AppConfigurationEntry;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TokenLimitsTest {
+
+    // The same limits as the handler uses by default
+    private static final TokenLimits DEFAULT_LIMITS = new TokenLimits(65536, 3, 8192, 0, true);
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String jwt(String header, String payload) {
+        return encode(header) + "." + encode(payload) + ".c2lnbmF0dXJl";
+    }
+
+    @Test
+    public void testOpaqueTokens() {
+        Assert.assertNull(DEFAULT_LIMITS.check("2YotnFZFEjr1zCsicMWpAA"));
+        Assert.assertNull(DEFAULT_LIMITS.check("ory_at_abc.def"));
+
+        // Even the checks that would otherwise reject the token are not applied
+        TokenLimits limits = new TokenLimits(65536, 3, 4, 1, true);
+        Assert.assertNull(limits.check("2YotnFZFEjr1zCsicMWpAA"));
+        Assert.assertNull(limits.check("2YotnFZFEjr1zCsicMWpAA.x"));
+        Assert.assertEquals(0, limits.getHeaderTooLongCount());
+    }
+
+    @Test
+    public void testOpaqueTokenWithDefaultConfigIsIntrospected() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(ServerConfig.OAUTH_INTROSPECTION_ENDPOINT_URI, "http://127.0.0.1:1/introspect");
+        options.put(ServerConfig.OAUTH_VALID_ISSUER_URI, "http://issuer");
+        options.put(ServerConfig.OAUTH_CLIENT_ID, "kafka");
+        options.put(ServerConfig.OAUTH_CLIENT_SECRET, "kafka-secret");
+
+        JaasServerOauthValidatorCallbackHandler handler = new JaasServerOauthValidatorCallbackHandler();
+        handler.configure(new HashMap<>(), "OAUTHBEARER", Collections.singletonList(
+                new AppConfigurationEntry("OAuthBearerLoginModule", AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options)));
+        try {
+            OAuthBearerValidatorCallback callback = new OAuthBearerValidatorCallback("2YotnFZFEjr1zCsicMWpAA");
+            try {
+                handler.handle(new Callback[] {callback});
+                Assert.fail("The introspection endpoint is not available, and should have failed the validation with the runtime exception");
+            } catch (AuthenticationException e) {
+                // Expected - the token was passed to the introspection endpoint, rather than rejected by the limits
+                Assert.assertNull(callback.errorStatus());
+            }
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testJwtLimits() {
+        TokenLimits limits = new TokenLimits(100, 3, 8192, 0, true);
+        Assert.assertNull(limits.check(jwt("{\"alg\":\"RS256\"}", "{}")));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 101; i++) {
+            sb.append('a');
+        }
+        ValidationFailure failure = limits.check(sb.toString());
+        Assert.assertNotNull(failure);
+        Assert.assertEquals("invalid_token", failure.status());
+        Assert.assertEquals(1, limits.getTooLongCount());
+
+        Assert.assertNotNull(limits.check("a.b.c.d"));
+        Assert.assertEquals(1, limits.getTooManySegmentsCount());
+
+        limits = new TokenLimits(0, 0, 4, 0, true);
+        Assert.assertNotNull(limits.check(jwt("{\"alg\":\"RS256\"}", "{}")));
+        Assert.assertEquals(1, limits.getHeaderTooLongCount());
+    }
+
+    @Test
+    public void testNestingDepth() {
+        TokenLimits limits = new TokenLimits(0, 0, 0, 2, true);
+        Assert.assertNull(limits.check(jwt("{\"alg\":\"RS256\"}", "{\"aud\":[\"kafka\"],\"s\":\"[[[{{{\"}")));
+        Assert.assertNotNull(limits.check(jwt("{\"alg\":\"RS256\"}", "{\"a\":{\"b\":[1]}}")));
+        Assert.assertEquals(1, limits.getNestedTooDeepCount());
+
+        // Disabled by default
+        Assert.assertNull(DEFAULT_LIMITS.check(jwt("{\"alg\":\"RS256\"}", "{\"a\":{\"b\":[[[[1]]]]}}")));
+    }
+
+    @Test
+    public void testNotJwt() {
+        TokenLimits limits = new TokenLimits(10, 3, 1, 1, false);
+        Assert.assertNull(limits.check("a.b.c.d.e"));
+        Assert.assertNotNull(limits.check("a.b.c.d.e.f"));
+    }
+}